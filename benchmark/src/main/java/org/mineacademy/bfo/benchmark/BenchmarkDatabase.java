@@ -0,0 +1,127 @@
+package org.mineacademy.bfo.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.mineacademy.bfo.collection.SerializedMap;
+import org.mineacademy.bfo.database.SimpleDatabase;
+import org.mineacademy.bfo.settings.SimpleSettings;
+
+/**
+ * A plain {@link SimpleDatabase} on an SQLite file with one table of players,
+ * exposing the methods we measure in {@link DatabaseBenchmark}
+ */
+final class BenchmarkDatabase extends SimpleDatabase {
+
+	/**
+	 * Create a new database, call {@link #open(File)} to connect
+	 */
+	BenchmarkDatabase() {
+		this.addVariable("table", "Benchmark");
+	}
+
+	/**
+	 * Connects to a new SQLite database in the given file and creates the table
+	 *
+	 * @param file
+	 */
+	void open(final File file) {
+		disableLagLogging();
+
+		this.connect("jdbc:sqlite:" + file.getAbsolutePath());
+		this.update("CREATE TABLE IF NOT EXISTS {table}(Id int, Name text, Level int, PRIMARY KEY (`Id`))");
+	}
+
+	/**
+	 * Inserts or replaces one row
+	 *
+	 * @param id
+	 */
+	void insertRow(final int id) {
+		this.insert("{table}", row(id));
+	}
+
+	/**
+	 * Inserts or replaces the given amount of rows in one transaction
+	 *
+	 * @param fromId
+	 * @param amount
+	 */
+	void insertRows(final int fromId, final int amount) {
+		final List<SerializedMap> rows = new ArrayList<>(amount);
+
+		for (int id = fromId; id < fromId + amount; id++)
+			rows.add(row(id));
+
+		this.insertBatch("{table}", rows);
+	}
+
+	/**
+	 * Updates the given amount of rows one statement each using a batch update
+	 *
+	 * @param fromId
+	 * @param amount
+	 */
+	void updateRows(final int fromId, final int amount) {
+		final List<String> sqls = new ArrayList<>(amount);
+
+		for (int id = fromId; id < fromId + amount; id++)
+			sqls.add("UPDATE {table} SET Level = Level + 1 WHERE Id = " + id);
+
+		this.batchUpdate(sqls);
+	}
+
+	/**
+	 * Reads all rows one by one and returns the sum of their levels
+	 *
+	 * @return
+	 */
+	long sumLevels() {
+		final long[] sum = { 0 };
+
+		this.selectAll("{table}", set -> sum[0] += set.getInt("Level"));
+
+		return sum[0];
+	}
+
+	/**
+	 * Counts rows with the given level
+	 *
+	 * @param level
+	 * @return
+	 */
+	int countLevel(final int level) {
+		return this.count("{table}", "Level", level);
+	}
+
+	/**
+	 * We run outside of a proxy so there is no scheduler to ping the connection
+	 */
+	@Override
+	protected int getHealthCheckIntervalTicks() {
+		return 0;
+	}
+
+	/**
+	 * Do not log slow queries, writing the log would be measured too
+	 */
+	@Override
+	protected int getSlowQueryThresholdMillis() {
+		return -1;
+	}
+
+	/*
+	 * Creates the row for the given id
+	 */
+	private static SerializedMap row(final int id) {
+		return SerializedMap.ofArray("Id", id, "Name", "Player" + id, "Level", id % 100);
+	}
+
+	/**
+	 * There is no console outside of a proxy, so turn off logging slow loads and saves
+	 */
+	static void disableLagLogging() {
+		SimpleSettings.LAG_THRESHOLD_MILLIS = -1;
+	}
+}
@@ -0,0 +1,99 @@
+package org.mineacademy.bfo.benchmark;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.mineacademy.bfo.collection.SerializedMap;
+import org.mineacademy.bfo.database.SimpleFlatDatabase;
+
+/**
+ * A {@link SimpleFlatDatabase} on an SQLite file running its operations on
+ * an own thread pool instead of the proxy scheduler
+ */
+final class BenchmarkFlatDatabase extends SimpleFlatDatabase<BenchmarkFlatDatabase.PlayerData> {
+
+	/**
+	 * Runs queued load and save operations on a cached pool like the proxy scheduler does
+	 */
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	/**
+	 * Create a new database, call {@link #open(File)} to connect
+	 */
+	BenchmarkFlatDatabase() {
+		this.addVariable("table", "BenchmarkFlat");
+	}
+
+	/**
+	 * Connects to a new SQLite database in the given file and creates the table
+	 *
+	 * @param file
+	 */
+	void open(final File file) {
+		BenchmarkDatabase.disableLagLogging();
+
+		this.connect("jdbc:sqlite:" + file.getAbsolutePath());
+	}
+
+	/**
+	 * Closes the connection and stops the thread pool
+	 *
+	 * @throws InterruptedException
+	 */
+	void shutdown() throws InterruptedException {
+		this.close();
+
+		this.executor.shutdown();
+		this.executor.awaitTermination(10, TimeUnit.SECONDS);
+	}
+
+	@Override
+	protected void runAsync(final Runnable task) {
+		this.executor.execute(task);
+	}
+
+	@Override
+	protected void onLoad(final SerializedMap map, final PlayerData data) {
+		data.level = map.getInteger("Level", 0);
+		data.coins = map.getLong("Coins", 0L);
+	}
+
+	@Override
+	protected SerializedMap onSave(final PlayerData data) {
+		return SerializedMap.ofArray("Level", data.level, "Coins", data.coins);
+	}
+
+	/**
+	 * We run outside of a proxy so there is no scheduler to remove old entries
+	 */
+	@Override
+	protected int getExpirySweepIntervalTicks() {
+		return 0;
+	}
+
+	/**
+	 * We run outside of a proxy so there is no scheduler to ping the connection
+	 */
+	@Override
+	protected int getHealthCheckIntervalTicks() {
+		return 0;
+	}
+
+	/**
+	 * Do not log slow queries, writing the log would be measured too
+	 */
+	@Override
+	protected int getSlowQueryThresholdMillis() {
+		return -1;
+	}
+
+	/**
+	 * The data we save and load for each player
+	 */
+	static final class PlayerData {
+		int level;
+		long coins;
+	}
+}
@@ -0,0 +1,35 @@
+package org.mineacademy.bfo.benchmark;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all database benchmarks at 1, 8 and 64 concurrent callers. Any arguments are passed
+ * to JMH, for example a regular expression to only run some of the benchmarks.
+ */
+public final class BenchmarkRunner {
+
+	/**
+	 * How many threads call the database at once in each run
+	 */
+	private static final int[] CALLERS = { 1, 8, 64 };
+
+	public static void main(final String[] args) throws RunnerException, CommandLineOptionException {
+		final CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		for (final int callers : CALLERS) {
+			final OptionsBuilder options = new OptionsBuilder();
+
+			options.parent(commandLine);
+			options.threads(callers);
+
+			if (commandLine.getIncludes().isEmpty())
+				options.include("org\\.mineacademy\\.bfo\\.benchmark\\..*Benchmark");
+
+			new Runner(options.build()).run();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package org.mineacademy.bfo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the statement, batch and read paths of {@link org.mineacademy.bfo.database.SimpleDatabase}
+ * against an SQLite file. Insert, insertBatch and batchUpdate are reported per row so
+ * that they can be compared directly, and {@link #jdbcInsert()} shows what the same
+ * insert costs on a plain connection without our locking and SQL building.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+	/**
+	 * How many rows the table has, writes replace existing rows so this does not grow
+	 */
+	private static final int ROWS = 10_000;
+
+	/**
+	 * How many rows we write in one batch
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * The database we measure
+	 */
+	private BenchmarkDatabase database;
+
+	/**
+	 * The SQLite file of the database
+	 */
+	private File file;
+
+	/**
+	 * A plain connection to another SQLite file used as the baseline
+	 */
+	private Connection jdbcConnection;
+
+	/**
+	 * The SQLite file of the plain connection
+	 */
+	private File jdbcFile;
+
+	/**
+	 * Creates the database and fills it with {@link #ROWS} rows
+	 *
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException, SQLException {
+		this.file = File.createTempFile("bfo-benchmark", ".db");
+		this.database = new BenchmarkDatabase();
+
+		this.database.open(this.file);
+
+		for (int id = 0; id < ROWS; id += BATCH_SIZE)
+			this.database.insertRows(id, BATCH_SIZE);
+
+		this.jdbcFile = File.createTempFile("bfo-benchmark-jdbc", ".db");
+		this.jdbcConnection = DriverManager.getConnection("jdbc:sqlite:" + this.jdbcFile.getAbsolutePath());
+
+		try (Statement statement = this.jdbcConnection.createStatement()) {
+			statement.executeUpdate("CREATE TABLE Benchmark(Id int, Name text, Level int, PRIMARY KEY (`Id`))");
+		}
+	}
+
+	/**
+	 * Closes the databases and removes their files
+	 *
+	 * @throws SQLException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		this.database.close();
+		this.file.delete();
+
+		this.jdbcConnection.close();
+		this.jdbcFile.delete();
+	}
+
+	/**
+	 * One insert per row on a plain connection, locked the same way
+	 * our single connection is
+	 *
+	 * @throws SQLException
+	 */
+	@Benchmark
+	public void jdbcInsert() throws SQLException {
+		final int id = randomId();
+
+		synchronized (this.jdbcConnection) {
+			try (PreparedStatement statement = this.jdbcConnection.prepareStatement("INSERT INTO Benchmark (Id, Name, Level) VALUES (?, ?, ?) ON CONFLICT DO UPDATE SET Id=excluded.Id, Name=excluded.Name, Level=excluded.Level")) {
+				statement.setInt(1, id);
+				statement.setString(2, "Player" + id);
+				statement.setInt(3, id % 100);
+				statement.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * One insert per row
+	 */
+	@Benchmark
+	public void insert() {
+		this.database.insertRow(randomId());
+	}
+
+	/**
+	 * Rows inserted with one prepared statement in one transaction
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void insertBatch() {
+		this.database.insertRows(randomBatchStart(), BATCH_SIZE);
+	}
+
+	/**
+	 * Rows updated with one SQL each sent as a batch in one transaction
+	 */
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void batchUpdate() {
+		this.database.updateRows(randomBatchStart(), BATCH_SIZE);
+	}
+
+	/**
+	 * Reads all {@link #ROWS} rows one by one
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public long selectStreaming() {
+		return this.database.sumLevels();
+	}
+
+	/**
+	 * Counts rows matching a condition
+	 *
+	 * @return
+	 */
+	@Benchmark
+	public int count() {
+		return this.database.countLevel(ThreadLocalRandom.current().nextInt(100));
+	}
+
+	/*
+	 * Return a random existing row id
+	 */
+	private static int randomId() {
+		return ThreadLocalRandom.current().nextInt(ROWS);
+	}
+
+	/*
+	 * Return a random id so that the whole batch is made of existing rows
+	 */
+	private static int randomBatchStart() {
+		return ThreadLocalRandom.current().nextInt(ROWS - BATCH_SIZE);
+	}
+}
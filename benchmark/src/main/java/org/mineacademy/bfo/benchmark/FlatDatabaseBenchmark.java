@@ -0,0 +1,109 @@
+package org.mineacademy.bfo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures saving and then loading a player through {@link org.mineacademy.bfo.database.SimpleFlatDatabase},
+ * waiting for both to finish, against an SQLite file
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FlatDatabaseBenchmark {
+
+	/**
+	 * How many different players we save and load
+	 */
+	private static final int PLAYERS = 1024;
+
+	/**
+	 * The database we measure
+	 */
+	private BenchmarkFlatDatabase database;
+
+	/**
+	 * The SQLite file of the database
+	 */
+	private File file;
+
+	/**
+	 * The unique IDs of players we save and load
+	 */
+	private final UUID[] uuids = new UUID[PLAYERS];
+
+	/**
+	 * Creates the database
+	 *
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		this.file = File.createTempFile("bfo-benchmark-flat", ".db");
+		this.database = new BenchmarkFlatDatabase();
+
+		this.database.open(this.file);
+
+		for (int i = 0; i < PLAYERS; i++)
+			this.uuids[i] = UUID.randomUUID();
+	}
+
+	/**
+	 * Closes the database and removes its file
+	 *
+	 * @throws InterruptedException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws InterruptedException {
+		this.database.shutdown();
+		this.file.delete();
+	}
+
+	/**
+	 * Saves a random player and loads him back
+	 *
+	 * @return
+	 * @throws InterruptedException
+	 */
+	@Benchmark
+	public int saveAndLoad() throws InterruptedException {
+		final int index = ThreadLocalRandom.current().nextInt(PLAYERS);
+		final UUID uuid = this.uuids[index];
+
+		final BenchmarkFlatDatabase.PlayerData saved = new BenchmarkFlatDatabase.PlayerData();
+		saved.level = index;
+		saved.coins = System.nanoTime();
+
+		final BenchmarkFlatDatabase.PlayerData loaded = new BenchmarkFlatDatabase.PlayerData();
+		final CountDownLatch latch = new CountDownLatch(2);
+
+		// Operations for one player run in order, so the load sees the save
+		this.database.save("Player" + index, uuid, saved, latch::countDown);
+		this.database.load(uuid, loaded, latch::countDown);
+
+		if (!latch.await(10, TimeUnit.SECONDS))
+			throw new IllegalStateException("Saving and loading " + uuid + " did not finish in 10 seconds");
+
+		return loaded.level;
+	}
+}
@@ -83,9 +83,10 @@ public final class Common {
 	private static final Pattern RGB_X_COLOR_REGEX = Pattern.compile("(" + ChatColor.COLOR_CHAR + "x)(" + ChatColor.COLOR_CHAR + "[0-9a-fA-F]){6}");
 
 	/**
-	 * We use this to send messages with colors to your console
+	 * We use this to send messages with colors to your console, null when running outside
+	 * of a proxy such as in benchmarks
 	 */
-	private static final CommandSender CONSOLE_SENDER = ProxyServer.getInstance().getConsole();
+	private static final CommandSender CONSOLE_SENDER = ProxyServer.getInstance() != null ? ProxyServer.getInstance().getConsole() : null;
 
 	/**
 	 * Used to send messages to player without repetition, e.g. if they attempt to break a block
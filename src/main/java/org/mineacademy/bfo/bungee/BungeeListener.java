@@ -1,25 +1,33 @@
 package org.mineacademy.bfo.bungee;
 
 import java.io.ByteArrayInputStream;
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.mineacademy.bfo.Common;
 import org.mineacademy.bfo.Valid;
 import org.mineacademy.bfo.bungee.message.IncomingMessage;
+import org.mineacademy.bfo.bungee.message.MessageBatcher;
+import org.mineacademy.bfo.bungee.message.MessageCompression;
+import org.mineacademy.bfo.bungee.message.MessageFraming;
+import org.mineacademy.bfo.bungee.message.MessageReassembler;
+import org.mineacademy.bfo.bungee.message.OutgoingMessage;
+import org.mineacademy.bfo.bungee.message.PendingMessages;
 import org.mineacademy.bfo.debug.Debugger;
 
 import com.google.common.io.ByteArrayDataInput;
 import com.google.common.io.ByteStreams;
 
-import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NonNull;
 import net.md_5.bungee.api.ProxyServer;
 import net.md_5.bungee.api.connection.Connection;
 import net.md_5.bungee.api.connection.Server;
 import net.md_5.bungee.api.event.PluginMessageEvent;
+import net.md_5.bungee.api.event.ServerSwitchEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
 
@@ -37,9 +45,24 @@ public abstract class BungeeListener implements Listener {
 	public static final String DEFAULT_CHANNEL = "BungeeCord";
 
 	/**
-	 * Holds registered bungee listeners
+	 * The maximum amount of bytes of incomplete messages we keep while waiting for their other fragments
 	 */
-	private static final Set<BungeeListener> registeredListeners = new HashSet<>();
+	private static final long MAX_REASSEMBLY_BYTES = 16 * 1024 * 1024;
+
+	/**
+	 * How long we wait for the next fragment of a message before dropping it
+	 */
+	private static final long REASSEMBLY_TIMEOUT_MILLIS = 10_000;
+
+	/**
+	 * Holds registered bungee listeners by their channel
+	 */
+	private static final Map<String, BungeeListener> registeredListeners = new ConcurrentHashMap<>();
+
+	/**
+	 * Holds registered bungee listeners by their channel id
+	 */
+	private static final Map<Integer, BungeeListener> registeredListenersById = new ConcurrentHashMap<>();
 
 	/**
 	 * The channel
@@ -53,23 +76,36 @@ public abstract class BungeeListener implements Listener {
 	@Getter
 	private final BungeeMessageType[] actions;
 
-	/**
-	 * Temporary variable storing the senders connection
+	/*
+	 * The actions by their name
 	 */
-	@Getter(value = AccessLevel.PROTECTED)
-	private Server sender;
+	private final Map<String, BungeeMessageType> actionsByName = new HashMap<>();
 
 	/**
-	 * Temporary variable storing the receiver
+	 * The id of the channel in binary framed messages, the same on all servers
 	 */
-	@Getter(value = AccessLevel.PROTECTED)
-	private Connection receiver;
+	@Getter
+	private final int channelId;
 
-	/**
-	 * Temporary variable for reading data
+	/*
+	 * Pre-encoded binary headers by action ordinal, see {@link MessageFraming#encodeHeader(int, int)}
+	 */
+	private final byte[][] binaryHeaders;
+
+	/*
+	 * The length of {@link BungeeMessageType#getContent()} by action ordinal, validated once here
+	 */
+	private final int[] contentLengths;
+
+	/*
+	 * Pre-encoded legacy header, see {@link MessageFraming#encodeLegacyHeader(String)}
+	 */
+	private final byte[] legacyHeader;
+
+	/*
+	 * The message being passed to this listener on the current thread, backing the deprecated getters below
 	 */
-	@Getter(value = AccessLevel.PROTECTED)
-	private byte[] data;
+	private final ThreadLocal<IncomingMessage> currentMessage = new ThreadLocal<>();
 
 	/**
 	 * Create a new bungee suite with the given params
@@ -81,12 +117,29 @@ public abstract class BungeeListener implements Listener {
 	protected BungeeListener(@NonNull String channel, Class<? extends BungeeMessageType> actionEnum) {
 		this.channel = channel;
 		this.actions = toActions(actionEnum);
+		this.channelId = channel.hashCode();
+		this.binaryHeaders = new byte[this.actions.length][];
+		this.contentLengths = new int[this.actions.length];
+		this.legacyHeader = MessageFraming.encodeLegacyHeader(channel);
 
-		for (final BungeeListener listener : registeredListeners)
-			if (listener.getChannel().equals(this.getChannel()))
-				return;
+		for (int ordinal = 0; ordinal < this.actions.length; ordinal++) {
+			this.binaryHeaders[ordinal] = MessageFraming.encodeHeader(this.channelId, ordinal);
+			this.actionsByName.put(this.actions[ordinal].name(), this.actions[ordinal]);
+
+			final Class<?>[] content = this.actions[ordinal].getContent();
+			Valid.checkNotNull(content, "Content of " + this.actions[ordinal].name() + " in " + actionEnum + " cannot be null!");
 
-		registeredListeners.add(this);
+			this.contentLengths[ordinal] = content.length;
+		}
+
+		if (registeredListeners.containsKey(channel))
+			return;
+
+		final BungeeListener sameId = registeredListenersById.get(this.channelId);
+		Valid.checkBoolean(sameId == null, "Channel " + channel + " has the same id as channel " + (sameId == null ? "" : sameId.getChannel()) + ", please rename one of them");
+
+		registeredListeners.put(channel, this);
+		registeredListenersById.put(this.channelId, this);
 	}
 
 	private static BungeeMessageType[] toActions(@NonNull Class<? extends BungeeMessageType> actionEnum) {
@@ -103,6 +156,16 @@ public abstract class BungeeListener implements Listener {
 		}
 	}
 
+	/**
+	 * Return the action of the given name, or null if there is none
+	 *
+	 * @param name
+	 * @return
+	 */
+	final BungeeMessageType getAction(String name) {
+		return this.actionsByName.get(name);
+	}
+
 	/**
 	 * Called automatically when you receive a plugin message from Bungeecord,
 	 * see https://spigotmc.org/wiki/bukkit-bungee-plugin-messaging-channel
@@ -112,6 +175,149 @@ public abstract class BungeeListener implements Listener {
 	 */
 	public abstract void onMessageReceived(Connection sender, IncomingMessage message);
 
+	/**
+	 * Should outgoing messages use the legacy format where the channel, sender UUID,
+	 * server name and action are written as strings?
+	 * <p>
+	 * Return false to use compact binary framing instead, see {@link MessageFraming}.
+	 * Only do this once all servers on your network can read it. Incoming messages
+	 * are read in both formats regardless.
+	 * <p>
+	 * Default: true
+	 *
+	 * @return
+	 */
+	public boolean isLegacyFormat() {
+		return true;
+	}
+
+	/**
+	 * Messages with content of this many bytes or more are compressed using Deflate,
+	 * set to -1 to only compress messages you call {@link OutgoingMessage#setCompressed(boolean)} on.
+	 * See {@link MessageCompression} for how many bytes this saves.
+	 * <p>
+	 * Only used when {@link #isLegacyFormat()} is disabled.
+	 * <p>
+	 * Default: -1
+	 *
+	 * @return
+	 */
+	public int getCompressionThreshold() {
+		return -1;
+	}
+
+	/**
+	 * Should messages sent to the same server shortly after each other be packed into one packet?
+	 * This saves packets when you send many small messages, at the cost of delaying them by up
+	 * to {@link MessageBatcher#FLUSH_DELAY_TICKS} tick.
+	 * <p>
+	 * Only used when {@link #isLegacyFormat()} is disabled.
+	 * <p>
+	 * Default: false
+	 *
+	 * @return
+	 */
+	public boolean isBatching() {
+		return false;
+	}
+
+	/**
+	 * Plugin messages can only be sent to servers with players. If this is above 0, messages
+	 * to servers without players are held for this many seconds and sent once a player joins,
+	 * otherwise they are dropped. See {@link PendingMessages} for limits and counters.
+	 * <p>
+	 * Default: 0
+	 *
+	 * @return
+	 */
+	public int getPendingMessageTtlSeconds() {
+		return 0;
+	}
+
+	/**
+	 * Return how many values messages of the given action hold, see {@link BungeeMessageType#getContent()}.
+	 * Fails if the action is not one of this listener's actions.
+	 *
+	 * @param action
+	 * @return
+	 */
+	public final int getContentLength(final BungeeMessageType action) {
+		return this.contentLengths[this.ordinalOf(action)];
+	}
+
+	/**
+	 * Return the pre-encoded binary header for messages of the given action,
+	 * see {@link MessageFraming#encodeHeader(int, int)}. Do not modify.
+	 *
+	 * @param action
+	 * @return
+	 */
+	public final byte[] getBinaryHeader(final BungeeMessageType action) {
+		return this.binaryHeaders[this.ordinalOf(action)];
+	}
+
+	/*
+	 * Return the ordinal of the action, failing if it is not one of our actions
+	 * since we would send or look up another action under its ordinal
+	 */
+	private int ordinalOf(final BungeeMessageType action) {
+		final int ordinal = action instanceof Enum ? ((Enum<?>) action).ordinal() : -1;
+
+		Valid.checkBoolean(ordinal >= 0 && ordinal < this.actions.length && this.actions[ordinal] == action,
+				"Action " + action + " is not an action of channel " + this.channel + ", did you pass an action of another listener?");
+
+		return ordinal;
+	}
+
+	/**
+	 * Return the pre-encoded header of legacy messages up to the server name,
+	 * see {@link MessageFraming#encodeLegacyHeader(String)}. Do not modify.
+	 *
+	 * @return
+	 */
+	public final byte[] getLegacyHeader() {
+		return this.legacyHeader;
+	}
+
+	/**
+	 * Return the server that sent the message being received on this thread
+	 *
+	 * @return
+	 * @deprecated use {@link IncomingMessage#getSender()}
+	 */
+	@Deprecated
+	protected Server getSender() {
+		final IncomingMessage message = this.currentMessage.get();
+
+		return message == null ? null : message.getSender();
+	}
+
+	/**
+	 * Return the receiver of the message being received on this thread
+	 *
+	 * @return
+	 * @deprecated use {@link IncomingMessage#getReceiver()}
+	 */
+	@Deprecated
+	protected Connection getReceiver() {
+		final IncomingMessage message = this.currentMessage.get();
+
+		return message == null ? null : message.getReceiver();
+	}
+
+	/**
+	 * Return the raw data of the message being received on this thread
+	 *
+	 * @return
+	 * @deprecated use {@link IncomingMessage#getData()}
+	 */
+	@Deprecated
+	protected byte[] getData() {
+		final IncomingMessage message = this.currentMessage.get();
+
+		return message == null ? null : message.getData();
+	}
+
 	/**
 	 * Shortcut for {@link ProxyServer#getInstance()}
 	 *
@@ -136,6 +342,11 @@ public abstract class BungeeListener implements Listener {
 
 		private static boolean registered = false;
 
+		/*
+		 * Collects fragments of messages too large for one packet
+		 */
+		private static final MessageReassembler reassembler = new MessageReassembler(MAX_REASSEMBLY_BYTES, REASSEMBLY_TIMEOUT_MILLIS);
+
 		public BungeeListenerImpl() {
 			Valid.checkBoolean(!registered, "Already registered!");
 
@@ -149,61 +360,172 @@ public abstract class BungeeListener implements Listener {
 		 */
 		@EventHandler
 		public void onPluginMessage(PluginMessageEvent event) {
-			synchronized (DEFAULT_CHANNEL) {
-				final Connection sender = event.getSender();
-				final Connection receiver = event.getReceiver();
-				final byte[] data = event.getData();
+			final Connection sender = event.getSender();
+			final Connection receiver = event.getReceiver();
+			final byte[] data = event.getData();
 
-				if (event.isCancelled())
-					return;
+			if (event.isCancelled())
+				return;
 
-				// Check if the message is for a server (ignore client messages)
-				if (!event.getTag().equals("BungeeCord"))
-					return;
+			// Check if the message is for a server (ignore client messages)
+			if (!event.getTag().equals("BungeeCord"))
+				return;
 
-				// Check if a player is not trying to send us a fake message
-				if (!(sender instanceof Server))
-					return;
+			// Check if a player is not trying to send us a fake message
+			if (!(sender instanceof Server))
+				return;
 
-				// Read the plugin message
-				final ByteArrayInputStream stream = new ByteArrayInputStream(data);
-				ByteArrayDataInput input;
+			final boolean handled = handlePacket((Server) sender, receiver, data);
 
-				try {
-					input = ByteStreams.newDataInput(stream);
+			// Binary packets are never meant for BungeeCord itself
+			if (handled || MessageFraming.isBinary(data))
+				event.setCancelled(true);
+		}
 
-				} catch (final Throwable t) {
-					input = ByteStreams.newDataInput(data);
-				}
+		/**
+		 * Send messages held for the server the player switched to
+		 *
+		 * @param event
+		 */
+		@EventHandler
+		public void onServerSwitch(ServerSwitchEvent event) {
+			final Server server = event.getPlayer().getServer();
+
+			if (server != null)
+				PendingMessages.flush(server.getInfo());
+		}
 
-				final String channelName = input.readUTF();
+		/*
+		 * Reads the plugin message and passes it to its listener
+		 */
+		private static boolean handlePacket(Server sender, Connection receiver, byte[] data) {
+			final ByteArrayInputStream stream = new ByteArrayInputStream(data);
+			ByteArrayDataInput input;
 
-				boolean handled = false;
+			try {
+				input = ByteStreams.newDataInput(stream);
 
-				for (final BungeeListener listener : registeredListeners)
-					if (channelName.equals(listener.getChannel())) {
+			} catch (final Throwable t) {
+				input = ByteStreams.newDataInput(data);
+			}
 
-						final UUID senderUid = UUID.fromString(input.readUTF());
-						final String serverName = input.readUTF();
-						final String actionName = input.readUTF();
+			if (!MessageFraming.isBinary(data))
+				return handleLegacy(sender, receiver, data, input, stream);
 
-						final BungeeMessageType action = BungeeMessageType.getByName(listener, actionName);
-						Valid.checkNotNull(action, "Unknown plugin action '" + actionName + "'. IF YOU UPDATED THE PLUGIN BY RELOADING, stop your entire network, ensure all servers were updated and start it again.");
+			// Kinds may mean something else in other versions, so do not guess
+			if (data[1] != MessageFraming.VERSION) {
+				Debugger.debug("bungee", "Ignoring binary message of unsupported version " + data[1] + " from " + sender.getInfo().getName());
+
+				return false;
+			}
 
-						final IncomingMessage message = new IncomingMessage(listener, senderUid, serverName, action, data, input, stream);
+			if (data[2] == MessageFraming.KIND_BATCH) {
+				input.skipBytes(3);
 
-						listener.sender = (Server) sender;
-						listener.receiver = receiver;
-						listener.data = data;
+				while (stream.available() > 0) {
+					final int length = MessageFraming.readVarInt(input);
 
-						Debugger.debug("bungee-all", "Channel " + channelName + " received " + message.getAction() + " message from " + message.getServerName() + " server.");
-						listener.onMessageReceived(listener.sender, message);
+					// Do not allocate what a corrupted or hostile length asks for
+					if (length < 0 || length > stream.available()) {
+						Debugger.debug("bungee", "Ignoring the rest of batch from " + sender.getInfo().getName() + " with invalid packet length " + length + ", " + stream.available() + " bytes left");
 
-						handled = true;
+						break;
 					}
 
-				if (handled)
-					event.setCancelled(true);
+					final byte[] packet = new byte[length];
+
+					input.readFully(packet);
+					handlePacket(sender, receiver, packet);
+				}
+
+				return true;
+			}
+
+			if (data[2] == MessageFraming.KIND_FRAGMENT) {
+				final byte[] message = reassembler.accept(sender.getInfo().getName(), data);
+
+				return message != null && handlePacket(sender, receiver, message);
+			}
+
+			return handleBinary(sender, receiver, data, input, stream);
+		}
+
+		/*
+		 * Reads a message where the header is written as strings
+		 */
+		private static boolean handleLegacy(Server sender, Connection receiver, byte[] data, ByteArrayDataInput input, ByteArrayInputStream stream) {
+			final String channelName = input.readUTF();
+			final BungeeListener listener = registeredListeners.get(channelName);
+
+			if (listener == null)
+				return false;
+
+			final UUID senderUid = UUID.fromString(input.readUTF());
+			final String serverName = input.readUTF();
+			final String actionName = input.readUTF();
+
+			final BungeeMessageType action = listener.getAction(actionName);
+			Valid.checkNotNull(action, "Unknown plugin action '" + actionName + "'. IF YOU UPDATED THE PLUGIN BY RELOADING, stop your entire network, ensure all servers were updated and start it again.");
+
+			dispatch(listener, new IncomingMessage(listener, sender, receiver, senderUid, serverName, action, data, ByteBuffer.wrap(data, data.length - stream.available(), stream.available()).slice()));
+
+			return true;
+		}
+
+		/*
+		 * Reads a message framed per {@link MessageFraming}
+		 */
+		private static boolean handleBinary(Server sender, Connection receiver, byte[] data, ByteArrayDataInput input, ByteArrayInputStream stream) {
+			input.readByte(); // Magic
+			input.readByte(); // Version, checked in handlePacket
+
+			final byte kind = input.readByte();
+
+			if (kind != MessageFraming.KIND_MESSAGE) {
+				Debugger.debug("bungee", "Ignoring binary message of unsupported kind " + kind + " from " + sender.getInfo().getName());
+
+				return false;
+			}
+
+			final BungeeListener listener = registeredListenersById.get(MessageFraming.readVarInt(input));
+
+			if (listener == null)
+				return false;
+
+			final int ordinal = MessageFraming.readVarInt(input);
+			final byte flags = input.readByte();
+			final String serverName = input.readUTF();
+			final UUID senderUid = (flags & MessageFraming.FLAG_SENDER) != 0 ? new UUID(input.readLong(), input.readLong()) : MessageFraming.NO_SENDER;
+
+			ByteBuffer content = ByteBuffer.wrap(data, data.length - stream.available(), stream.available()).slice();
+
+			if ((flags & MessageFraming.FLAG_DEFLATED) != 0) {
+				final byte[] compressed = new byte[content.remaining()];
+				content.get(compressed);
+
+				content = ByteBuffer.wrap(MessageCompression.inflate(compressed));
+			}
+
+			Valid.checkBoolean(ordinal >= 0 && ordinal < listener.getActions().length, "Unknown plugin action #" + ordinal + " on channel " + listener.getChannel() + ". IF YOU UPDATED THE PLUGIN BY RELOADING, stop your entire network, ensure all servers were updated and start it again.");
+
+			dispatch(listener, new IncomingMessage(listener, sender, receiver, senderUid, serverName, listener.getActions()[ordinal], data, content));
+
+			return true;
+		}
+
+		/*
+		 * Passes the message to the listener, messages may be received on multiple threads at once
+		 */
+		private static void dispatch(BungeeListener listener, IncomingMessage message) {
+			Debugger.debug("bungee-all", "Channel " + listener.getChannel() + " received " + message.getAction() + " message from " + message.getServerName() + " server.");
+
+			listener.currentMessage.set(message);
+
+			try {
+				listener.onMessageReceived(message.getSender(), message);
+
+			} finally {
+				listener.currentMessage.remove();
 			}
 		}
 	}
@@ -30,12 +30,6 @@ public interface BungeeMessageType {
 	 * @return
 	 */
 	static BungeeMessageType getByName(BungeeListener listener, String name) {
-		final BungeeMessageType[] actions = listener.getActions();
-
-		for (final BungeeMessageType action : actions)
-			if (action.name().equals(name))
-				return action;
-
-		return null;
+		return listener.getAction(name);
 	}
 }
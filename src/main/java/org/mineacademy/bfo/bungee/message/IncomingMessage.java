@@ -1,20 +1,22 @@
 package org.mineacademy.bfo.bungee.message;
 
 import java.io.ByteArrayInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
 
-import org.mineacademy.bfo.Common;
 import org.mineacademy.bfo.ReflectionUtil;
 import org.mineacademy.bfo.bungee.BungeeListener;
 import org.mineacademy.bfo.bungee.BungeeMessageType;
 import org.mineacademy.bfo.collection.SerializedMap;
 import org.mineacademy.bfo.debug.Debugger;
+import org.mineacademy.bfo.exception.FoException;
 
 import com.google.common.io.ByteArrayDataInput;
 
 import lombok.Getter;
 import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.connection.Connection;
+import net.md_5.bungee.api.connection.Server;
 
 /**
  * Represents an incoming plugin message.
@@ -31,6 +33,18 @@ public final class IncomingMessage extends Message {
 	@Getter
 	private final byte[] data;
 
+	/**
+	 * The server that sent this message
+	 */
+	@Getter
+	private final Server sender;
+
+	/**
+	 * The connection that received this message
+	 */
+	@Getter
+	private final Connection receiver;
+
 	/**
 	 * The sender UUID
 	 */
@@ -44,14 +58,9 @@ public final class IncomingMessage extends Message {
 	private final String serverName;
 
 	/**
-	 * The input we use to read our data array
+	 * The content of the message after its header, read directly without copying
 	 */
-	private final ByteArrayDataInput input;
-
-	/**
-	 * The internal stream
-	 */
-	private final ByteArrayInputStream stream;
+	private final ByteBuffer content;
 
 	/**
 	 * Create a new incoming message from the given array
@@ -64,21 +73,50 @@ public final class IncomingMessage extends Message {
 	 * 4  Action (String converted to enum of {@link BungeeMessageType})
 	 *
 	 * @param listener
+	 * @param sender
+	 * @param receiver
 	 * @param senderUid
 	 * @param serverName
 	 * @param type
 	 * @param data
-	 * @param input
-	 * @param stream
+	 * @param content the content after the header, positioned at its first value
 	 */
-	public IncomingMessage(BungeeListener listener, UUID senderUid, String serverName, BungeeMessageType type, byte[] data, ByteArrayDataInput input, ByteArrayInputStream stream) {
+	public IncomingMessage(BungeeListener listener, Server sender, Connection receiver, UUID senderUid, String serverName, BungeeMessageType type, byte[] data, ByteBuffer content) {
 		super(listener, type);
 
+		this.sender = sender;
+		this.receiver = receiver;
 		this.data = data;
 		this.senderUid = senderUid;
 		this.serverName = serverName;
-		this.input = input;
-		this.stream = stream;
+		this.content = content;
+	}
+
+	/**
+	 * Create a new incoming message without knowing its sender and receiver connections
+	 *
+	 * @param listener
+	 * @param senderUid
+	 * @param serverName
+	 * @param type
+	 * @param data
+	 * @param input
+	 * @param stream
+	 * @deprecated use {@link #IncomingMessage(BungeeListener, Server, Connection, UUID, String, BungeeMessageType, byte[], ByteBuffer)}
+	 */
+	@Deprecated
+	public IncomingMessage(BungeeListener listener, UUID senderUid, String serverName, BungeeMessageType type, byte[] data, ByteArrayDataInput input, ByteArrayInputStream stream) {
+		this(listener, null, null, senderUid, serverName, type, data, readRemaining(stream));
+	}
+
+	/*
+	 * Copy what is left in the stream into a buffer
+	 */
+	private static ByteBuffer readRemaining(ByteArrayInputStream stream) {
+		final byte[] remaining = new byte[stream.available()];
+		stream.read(remaining, 0, remaining.length);
+
+		return ByteBuffer.wrap(remaining);
 	}
 
 	/**
@@ -89,7 +127,7 @@ public final class IncomingMessage extends Message {
 	public String readString() {
 		this.moveHead(String.class);
 
-		return this.input.readUTF();
+		return this.readUTF();
 	}
 
 	/**
@@ -100,7 +138,7 @@ public final class IncomingMessage extends Message {
 	public UUID readUUID() {
 		this.moveHead(UUID.class);
 
-		return UUID.fromString(this.input.readUTF());
+		return UUID.fromString(this.readUTF());
 	}
 
 	/**
@@ -111,7 +149,7 @@ public final class IncomingMessage extends Message {
 	public SerializedMap readMap() {
 		this.moveHead(String.class);
 
-		return SerializedMap.fromJson(this.input.readUTF());
+		return SerializedMap.fromJson(this.readUTF());
 	}
 
 	/**
@@ -124,7 +162,7 @@ public final class IncomingMessage extends Message {
 	public <T extends Enum<T>> T readEnum(Class<T> typeOf) {
 		this.moveHead(typeOf);
 
-		return ReflectionUtil.lookupEnum(typeOf, this.input.readUTF());
+		return ReflectionUtil.lookupEnum(typeOf, this.readUTF());
 	}
 
 	/**
@@ -135,7 +173,7 @@ public final class IncomingMessage extends Message {
 	public boolean readBoolean() {
 		this.moveHead(Boolean.class);
 
-		return this.input.readBoolean();
+		return this.content.get() != 0;
 	}
 
 	/**
@@ -146,7 +184,7 @@ public final class IncomingMessage extends Message {
 	public byte readByte() {
 		this.moveHead(Byte.class);
 
-		return this.input.readByte();
+		return this.content.get();
 	}
 
 	/**
@@ -157,16 +195,25 @@ public final class IncomingMessage extends Message {
 	public byte[] readBytes() {
 		this.moveHead(byte[].class);
 
-		final byte[] array = new byte[this.stream.available()];
+		final byte[] array = new byte[this.content.remaining()];
+		this.content.get(array);
 
-		try {
-			this.stream.read(array);
+		return array;
+	}
 
-		} catch (final IOException e) {
-			e.printStackTrace();
-		}
+	/**
+	 * Reads the rest of the bytes as a read-only view without copying them,
+	 * it shares memory with {@link #getData()} unless the message was compressed
+	 *
+	 * @return
+	 */
+	public ByteBuffer readBytesView() {
+		this.moveHead(byte[].class);
 
-		return array;
+		final ByteBuffer view = this.content.slice().asReadOnlyBuffer();
+		this.content.position(this.content.limit());
+
+		return view;
 	}
 
 	/**
@@ -177,7 +224,7 @@ public final class IncomingMessage extends Message {
 	public double readDouble() {
 		this.moveHead(Double.class);
 
-		return this.input.readDouble();
+		return this.content.getDouble();
 	}
 
 	/**
@@ -188,7 +235,7 @@ public final class IncomingMessage extends Message {
 	public float readFloat() {
 		this.moveHead(Float.class);
 
-		return this.input.readFloat();
+		return this.content.getFloat();
 	}
 
 	/**
@@ -199,7 +246,7 @@ public final class IncomingMessage extends Message {
 	public int readInt() {
 		this.moveHead(Integer.class);
 
-		return this.input.readInt();
+		return this.content.getInt();
 	}
 
 	/**
@@ -210,7 +257,7 @@ public final class IncomingMessage extends Message {
 	public long readLong() {
 		this.moveHead(Long.class);
 
-		return this.input.readLong();
+		return this.content.getLong();
 	}
 
 	/**
@@ -221,7 +268,39 @@ public final class IncomingMessage extends Message {
 	public short readShort() {
 		this.moveHead(Short.class);
 
-		return this.input.readShort();
+		return this.content.getShort();
+	}
+
+	/*
+	 * Read a string written by DataOutput#writeUTF, which uses modified UTF-8
+	 */
+	private String readUTF() {
+		final int length = this.content.getShort() & 0xFFFF;
+		final int end = this.content.position() + length;
+
+		if (end > this.content.limit())
+			throw new FoException("String of " + length + " bytes is longer than the rest of the bungee message");
+
+		final char[] chars = new char[length];
+		int count = 0;
+
+		while (this.content.position() < end) {
+			final int first = this.content.get() & 0xFF;
+
+			if (first < 0x80)
+				chars[count++] = (char) first;
+
+			else if ((first & 0xE0) == 0xC0 && this.content.position() < end)
+				chars[count++] = (char) ((first & 0x1F) << 6 | this.content.get() & 0x3F);
+
+			else if ((first & 0xF0) == 0xE0 && this.content.position() + 1 < end)
+				chars[count++] = (char) ((first & 0x0F) << 12 | (this.content.get() & 0x3F) << 6 | this.content.get() & 0x3F);
+
+			else
+				throw new FoException("Malformed string in bungee message");
+		}
+
+		return new String(chars, 0, count);
 	}
 
 	/**
@@ -238,20 +317,19 @@ public final class IncomingMessage extends Message {
 	 * @param info
 	 */
 	public void forward(ServerInfo info) {
+		final byte[][] packets = this.toPackets(this.data, "incoming");
 
-		if (info.getPlayers().isEmpty()) {
-			Debugger.debug("bungee", "NOT sending data on " + this.getChannel() + " channel from " + this.getAction() + " to " + info.getName() + " server because it is empty.");
-
+		if (packets == null)
 			return;
-		}
 
-		if (this.data.length > 32_000) { // Safety margin
-			Common.log("[incoming] Outgoing bungee message was oversized, not sending to " + info.getName() + ". Max length: 32766 bytes, got " + this.data.length + " bytes.");
+		if (info.getPlayers().isEmpty()) {
+			this.holdForEmptyServer(info, packets);
 
 			return;
 		}
 
-		info.sendData(BungeeListener.DEFAULT_CHANNEL, this.data);
+		this.sendPackets(info, packets);
+
 		Debugger.debug("bungee", "Forwarding data on " + this.getChannel() + " channel from " + this.getAction() + " to " + info.getName() + " server.");
 	}
 }
\ No newline at end of file
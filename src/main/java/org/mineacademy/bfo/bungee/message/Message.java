@@ -1,18 +1,19 @@
 package org.mineacademy.bfo.bungee.message;
 
+import org.mineacademy.bfo.Common;
 import org.mineacademy.bfo.Valid;
 import org.mineacademy.bfo.bungee.BungeeListener;
 import org.mineacademy.bfo.bungee.BungeeMessageType;
+import org.mineacademy.bfo.debug.Debugger;
+import org.mineacademy.bfo.exception.FoException;
 
-import lombok.AccessLevel;
-import lombok.RequiredArgsConstructor;
+import net.md_5.bungee.api.config.ServerInfo;
 
 /**
  * Represents a in/out message with a given action and server name
  * and a safety check for writing/reading the data
  * based on the action's content.
  */
-@RequiredArgsConstructor(access = AccessLevel.PROTECTED)
 abstract class Message {
 
 	/**
@@ -25,12 +26,31 @@ abstract class Message {
 	 */
 	private final BungeeMessageType action;
 
+	/**
+	 * The length of the action's {@link BungeeMessageType#getContent()}, validated by the listener
+	 */
+	private final int contentLength;
+
 	/**
 	 * The current position of writing the data based on the
 	 * {@link BungeeMessageType#getContent()}
 	 */
 	private int actionHead = 0;
 
+	/**
+	 * Create a new message of the given action
+	 *
+	 * @param listener
+	 * @param action
+	 */
+	protected Message(final BungeeListener listener, final BungeeMessageType action) {
+		Valid.checkNotNull(action, "Action not set!");
+
+		this.listener = listener;
+		this.action = action;
+		this.contentLength = listener != null ? listener.getContentLength(action) : action.getContent().length;
+	}
+
 	/**
 	 * Ensures we are reading in the correct order as the given {@link BungeeMessageType}
 	 * specifies in its {@link BungeeMessageType#getContent()} getter.
@@ -41,14 +61,71 @@ abstract class Message {
 	 * @param typeOf
 	 */
 	protected final void moveHead(Class<?> typeOf) {
-		Valid.checkNotNull(this.action, "Action not set!");
-
-		final Class<?>[] content = this.action.getContent();
-		Valid.checkBoolean(this.actionHead < content.length, "Head out of bounds! Max data size for " + this.action.name() + " is " + content.length);
+		if (this.actionHead >= this.contentLength)
+			throw new FoException("Head out of bounds! Max data size for " + this.action.name() + " is " + this.contentLength);
 
 		this.actionHead++;
 	}
 
+	/**
+	 * Return the packets to send the given message in. Messages over {@link MessageFraming#MAX_PACKET_SIZE}
+	 * bytes are split into fragments the receiver puts back together, unless the listener uses the legacy
+	 * format which receivers might not reassemble, then we log and return null.
+	 *
+	 * @param data
+	 * @param logPrefix
+	 * @return
+	 */
+	protected final byte[][] toPackets(final byte[] data, final String logPrefix) {
+		if (data.length <= MessageFraming.MAX_PACKET_SIZE)
+			return new byte[][] { data };
+
+		if (this.listener.isLegacyFormat()) {
+			Common.log("[" + logPrefix + "] Outgoing bungee message was oversized, not sending. Max length: 32766 bytes, got " + data.length + " bytes. Channel: " + this.listener.getChannel()
+					+ ", action: " + this.action.name() + ". Disable legacy format in your BungeeListener to send large messages in parts.");
+
+			return null;
+		}
+
+		return MessageFraming.split(data);
+	}
+
+	/**
+	 * Send the packets to the given server, adding them to the server's batch
+	 * if the listener uses batching, see {@link BungeeListener#isBatching()}
+	 *
+	 * @param server
+	 * @param packets
+	 */
+	protected final void sendPackets(final ServerInfo server, final byte[][] packets) {
+		final boolean batching = this.listener.isBatching() && !this.listener.isLegacyFormat();
+
+		for (final byte[] packet : packets)
+			if (batching)
+				MessageBatcher.add(server, packet);
+			else
+				server.sendData(BungeeListener.DEFAULT_CHANNEL, packet);
+	}
+
+	/**
+	 * Hold the packets until a player joins the server without players if the listener
+	 * enables it, see {@link BungeeListener#getPendingMessageTtlSeconds()}, otherwise drop them
+	 *
+	 * @param server
+	 * @param packets
+	 */
+	protected final void holdForEmptyServer(final ServerInfo server, final byte[][] packets) {
+		final int ttlSeconds = this.listener.getPendingMessageTtlSeconds();
+
+		if (ttlSeconds > 0) {
+			PendingMessages.add(server, packets, ttlSeconds * 1000L);
+
+			Debugger.debug("bungee", "Holding data on " + this.listener.getChannel() + " channel from " + this.action + " for " + server.getName() + " server until a player joins because it is empty.");
+
+		} else
+			Debugger.debug("bungee", "NOT sending data on " + this.listener.getChannel() + " channel from " + this.action + " to " + server.getName() + " server because it is empty.");
+	}
+
 	/**
 	 *
 	 * @return
@@ -0,0 +1,168 @@
+package org.mineacademy.bfo.bungee.message;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.mineacademy.bfo.Common;
+import org.mineacademy.bfo.bungee.BungeeListener;
+
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import net.md_5.bungee.api.config.ServerInfo;
+
+/**
+ * Packs packets sent to the same server shortly after each other into one
+ * packet, see {@link BungeeListener#isBatching()}
+ * <p>
+ * A batch is sent once it is full or {@link #FLUSH_DELAY_TICKS} after its
+ * first packet was added. Packets are sent in the order they were added.
+ * <p>
+ * Internal use only.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MessageBatcher {
+
+	/**
+	 * How long we wait for more packets before sending a batch
+	 */
+	public static final int FLUSH_DELAY_TICKS = 1;
+
+	/**
+	 * The size of the batch header, see {@link MessageFraming#KIND_BATCH}
+	 */
+	private static final int HEADER_SIZE = 3;
+
+	/**
+	 * Batches waiting to be sent by server name
+	 */
+	private static final Map<String, Batch> batches = new HashMap<>();
+
+	/**
+	 * Is the task sending all batches scheduled?
+	 */
+	private static boolean flushScheduled = false;
+
+	/**
+	 * Add the packet to the batch of the given server
+	 *
+	 * @param server
+	 * @param packet
+	 */
+	static synchronized void add(final ServerInfo server, final byte[] packet) {
+		Batch batch = batches.get(server.getName());
+
+		if (batch == null) {
+			batch = new Batch(server);
+
+			batches.put(server.getName(), batch);
+		}
+
+		final int packetSize = MessageFraming.getVarIntSize(packet.length) + packet.length;
+
+		if (batch.size() + packetSize > MessageFraming.MAX_PACKET_SIZE)
+			batch.flush();
+
+		// Too large to share a packet with others
+		if (HEADER_SIZE + packetSize > MessageFraming.MAX_PACKET_SIZE) {
+			server.sendData(BungeeListener.DEFAULT_CHANNEL, packet);
+
+			return;
+		}
+
+		batch.add(packet);
+
+		if (!flushScheduled) {
+			flushScheduled = true;
+
+			Common.runLaterAsync(FLUSH_DELAY_TICKS, MessageBatcher::flushAll);
+		}
+	}
+
+	/**
+	 * Send all waiting batches now, also called when the plugin reloads or stops
+	 * since that cancels the scheduled task sending them
+	 */
+	public static synchronized void flushAll() {
+		flushScheduled = false;
+
+		for (final Batch batch : batches.values())
+			batch.flush();
+	}
+
+	/*
+	 * Packets waiting to be sent to one server
+	 */
+	@RequiredArgsConstructor
+	private static final class Batch {
+
+		/**
+		 * The server we send to
+		 */
+		private final ServerInfo server;
+
+		/**
+		 * The batch packet written so far
+		 */
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(1024);
+
+		/**
+		 * Writes into {@link #buffer}
+		 */
+		private final ByteArrayDataOutput output = ByteStreams.newDataOutput(this.buffer);
+
+		/**
+		 * The only packet in the batch, sent as it is if no other packet is added
+		 */
+		private byte[] single;
+
+		/**
+		 * How many packets are in the batch
+		 */
+		private int count;
+
+		/*
+		 * Return the size of the batch packet if we sent it now
+		 */
+		private int size() {
+			return this.count == 0 ? HEADER_SIZE : this.buffer.size();
+		}
+
+		/*
+		 * Add the packet to the batch
+		 */
+		private void add(final byte[] packet) {
+			if (this.count == 0) {
+				this.output.writeByte(MessageFraming.MAGIC);
+				this.output.writeByte(MessageFraming.VERSION);
+				this.output.writeByte(MessageFraming.KIND_BATCH);
+
+				this.single = packet;
+
+			} else
+				this.single = null;
+
+			MessageFraming.writeVarInt(this.output, packet.length);
+			this.output.write(packet);
+			this.count++;
+		}
+
+		/*
+		 * Send the batch and start a new one
+		 */
+		private void flush() {
+			if (this.count == 0)
+				return;
+
+			this.server.sendData(BungeeListener.DEFAULT_CHANNEL, this.count == 1 ? this.single : this.buffer.toByteArray());
+
+			this.buffer.reset();
+			this.single = null;
+			this.count = 0;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package org.mineacademy.bfo.bungee.message;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.mineacademy.bfo.exception.FoException;
+
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Compresses the content of binary framed messages using Deflate, see
+ * {@link org.mineacademy.bfo.bungee.BungeeListener#getCompressionThreshold()}
+ * <p>
+ * Compressed content starts with its original length as a varint so that
+ * the receiver can refuse content which would inflate too large.
+ * <p>
+ * Internal use only, except for the counters.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MessageCompression {
+
+	/**
+	 * The maximum length of content we inflate
+	 */
+	private static final int MAX_INFLATED_LENGTH = MessageFraming.MAX_FRAGMENTS * MessageFraming.MAX_PACKET_SIZE;
+
+	/*
+	 * Counters, see getters below
+	 */
+	private static final AtomicLong compressedMessages = new AtomicLong();
+	private static final AtomicLong bytesBeforeCompression = new AtomicLong();
+	private static final AtomicLong bytesAfterCompression = new AtomicLong();
+	private static final AtomicLong inflatedMessages = new AtomicLong();
+
+	/**
+	 * Compress the content, returning null if it did not get smaller
+	 *
+	 * @param content
+	 * @return
+	 */
+	static byte[] deflate(final byte[] content) {
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+		try {
+			deflater.setInput(content);
+			deflater.finish();
+
+			final ByteArrayDataOutput output = ByteStreams.newDataOutput(content.length / 2 + 16);
+			final byte[] buffer = new byte[Math.min(content.length + 64, 8192)];
+
+			MessageFraming.writeVarInt(output, content.length);
+
+			while (!deflater.finished())
+				output.write(buffer, 0, deflater.deflate(buffer));
+
+			final byte[] compressed = output.toByteArray();
+
+			if (compressed.length >= content.length)
+				return null;
+
+			compressedMessages.incrementAndGet();
+			bytesBeforeCompression.addAndGet(content.length);
+			bytesAfterCompression.addAndGet(compressed.length);
+
+			return compressed;
+
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompress content compressed by {@link #deflate(byte[])}
+	 *
+	 * @param compressed
+	 * @return
+	 */
+	public static byte[] inflate(final byte[] compressed) {
+		final ByteArrayDataInput input = ByteStreams.newDataInput(compressed);
+		final int length = MessageFraming.readVarInt(input);
+		final int offset = MessageFraming.getVarIntSize(length);
+
+		if (length < 0 || length > MAX_INFLATED_LENGTH)
+			throw new FoException("Refusing to inflate bungee message of " + length + " bytes, max is " + MAX_INFLATED_LENGTH);
+
+		final Inflater inflater = new Inflater();
+
+		try {
+			inflater.setInput(compressed, offset, compressed.length - offset);
+
+			final byte[] content = new byte[length];
+			int position = 0;
+
+			while (position < length && !inflater.finished() && !inflater.needsInput())
+				position += inflater.inflate(content, position, length - position);
+
+			if (position != length || !inflater.finished())
+				throw new FoException("Compressed bungee message is corrupted, expected " + length + " bytes, got " + position);
+
+			inflatedMessages.incrementAndGet();
+
+			return content;
+
+		} catch (final DataFormatException ex) {
+			throw new FoException(ex, "Compressed bungee message is corrupted");
+
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * Return how many messages we sent compressed
+	 *
+	 * @return
+	 */
+	public static long getCompressedMessages() {
+		return compressedMessages.get();
+	}
+
+	/**
+	 * Return how many bytes compressed messages had before compression
+	 *
+	 * @return
+	 */
+	public static long getBytesBeforeCompression() {
+		return bytesBeforeCompression.get();
+	}
+
+	/**
+	 * Return how many bytes compressed messages had after compression
+	 *
+	 * @return
+	 */
+	public static long getBytesAfterCompression() {
+		return bytesAfterCompression.get();
+	}
+
+	/**
+	 * Return how many bytes compression saved per message, not multiplied by the
+	 * amount of servers a message was sent to
+	 *
+	 * @return
+	 */
+	public static long getBytesSaved() {
+		return bytesBeforeCompression.get() - bytesAfterCompression.get();
+	}
+
+	/**
+	 * Return how many compressed messages we received
+	 *
+	 * @return
+	 */
+	public static long getInflatedMessages() {
+		return inflatedMessages.get();
+	}
+}
@@ -0,0 +1,225 @@
+package org.mineacademy.bfo.bungee.message;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.mineacademy.bfo.exception.FoException;
+
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * The binary framing of plugin messages used when {@link org.mineacademy.bfo.bungee.BungeeListener#isLegacyFormat()}
+ * is disabled, see the constants below for the layout.
+ * <p>
+ * Legacy messages start with the length of the channel name written by writeUTF, which
+ * is never above 255 so their first byte is 0 and we can tell both formats apart by the
+ * first byte. Receivers accept both formats.
+ * <p>
+ * Internal use only.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MessageFraming {
+
+	/**
+	 * The first byte of binary framed packets
+	 */
+	public static final byte MAGIC = (byte) 0xFE;
+
+	/**
+	 * The current framing version, written as the second byte
+	 */
+	public static final byte VERSION = 1;
+
+	/**
+	 * Packet kind written as the third byte, followed by the channel id
+	 * and action ordinal as varints, the flags byte, the server name, the sender
+	 * UUID if {@link #FLAG_SENDER} is set, then the content of the message
+	 */
+	public static final byte KIND_MESSAGE = 0;
+
+	/**
+	 * Packet kind of a part of a message too large for one packet, followed by
+	 * the message id, fragment index and fragment count as varints, then the part.
+	 * The parts together are the original packet, see {@link #split(byte[])}
+	 */
+	public static final byte KIND_FRAGMENT = 1;
+
+	/**
+	 * Packet kind of several packets sent together, followed by each packet
+	 * prefixed by its length as a varint, see {@link MessageBatcher}
+	 */
+	public static final byte KIND_BATCH = 2;
+
+	/**
+	 * The maximum size of a packet we send, with a safety margin below the 32766 bytes limit
+	 */
+	public static final int MAX_PACKET_SIZE = 32_000;
+
+	/**
+	 * The maximum amount of fragments of one message
+	 */
+	public static final int MAX_FRAGMENTS = 1024;
+
+	/**
+	 * Flag indicating the sender UUID follows the server name as two longs
+	 */
+	public static final byte FLAG_SENDER = 0x01;
+
+	/**
+	 * Flag indicating the content after the header is compressed, see {@link MessageCompression}
+	 */
+	public static final byte FLAG_DEFLATED = 0x02;
+
+	/**
+	 * The sender UUID of messages that do not have one
+	 */
+	public static final UUID NO_SENDER = new UUID(0, 0);
+
+	/**
+	 * Ids of messages split into fragments
+	 */
+	private static final AtomicInteger nextMessageId = new AtomicInteger();
+
+	/**
+	 * Return true if the packet uses binary framing
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static boolean isBinary(final byte[] data) {
+		return data.length >= 3 && data[0] == MAGIC;
+	}
+
+	/**
+	 * Return the header of messages of the given channel and action up to the flags byte
+	 *
+	 * @param channelId
+	 * @param actionOrdinal
+	 * @return
+	 */
+	public static byte[] encodeHeader(final int channelId, final int actionOrdinal) {
+		final ByteArrayDataOutput output = ByteStreams.newDataOutput(8);
+
+		output.writeByte(MAGIC);
+		output.writeByte(VERSION);
+		output.writeByte(KIND_MESSAGE);
+		writeVarInt(output, channelId);
+		writeVarInt(output, actionOrdinal);
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Return the header of legacy messages of the given channel up to the server name,
+	 * which is the channel and a sender UUID of zeros
+	 *
+	 * @param channel
+	 * @return
+	 */
+	public static byte[] encodeLegacyHeader(final String channel) {
+		final ByteArrayDataOutput output = ByteStreams.newDataOutput();
+
+		output.writeUTF(channel);
+		output.writeUTF(NO_SENDER.toString());
+
+		return output.toByteArray();
+	}
+
+	/**
+	 * Split the packet into fragments of at most {@link #MAX_PACKET_SIZE} bytes each
+	 *
+	 * @param data
+	 * @return
+	 */
+	public static byte[][] split(final byte[] data) {
+		final int chunkSize = MAX_PACKET_SIZE - 32;
+		final int count = (data.length + chunkSize - 1) / chunkSize;
+
+		if (count > MAX_FRAGMENTS)
+			throw new FoException("Bungee message too large, max length is " + MAX_FRAGMENTS * chunkSize + " bytes, got " + data.length + " bytes");
+
+		final int messageId = nextMessageId.getAndIncrement() & Integer.MAX_VALUE;
+		final byte[][] packets = new byte[count][];
+
+		for (int index = 0; index < count; index++) {
+			final int from = index * chunkSize;
+			final int length = Math.min(chunkSize, data.length - from);
+			final ByteArrayDataOutput output = ByteStreams.newDataOutput(length + 32);
+
+			output.writeByte(MAGIC);
+			output.writeByte(VERSION);
+			output.writeByte(KIND_FRAGMENT);
+			writeVarInt(output, messageId);
+			writeVarInt(output, index);
+			writeVarInt(output, count);
+			output.write(data, from, length);
+
+			packets[index] = output.toByteArray();
+		}
+
+		return packets;
+	}
+
+	/**
+	 * Write a variable length number, numbers below 128 take a single byte
+	 *
+	 * @param output
+	 * @param value
+	 */
+	public static void writeVarInt(final ByteArrayDataOutput output, int value) {
+		while ((value & ~0x7F) != 0) {
+			output.writeByte(value & 0x7F | 0x80);
+
+			value >>>= 7;
+		}
+
+		output.writeByte(value);
+	}
+
+	/**
+	 * Return how many bytes {@link #writeVarInt(ByteArrayDataOutput, int)} writes for the value
+	 *
+	 * @param value
+	 * @return
+	 */
+	public static int getVarIntSize(int value) {
+		int size = 1;
+
+		while ((value & ~0x7F) != 0) {
+			size++;
+
+			value >>>= 7;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Read a variable length number written by {@link #writeVarInt(ByteArrayDataOutput, int)}
+	 *
+	 * @param input
+	 * @return
+	 */
+	public static int readVarInt(final ByteArrayDataInput input) {
+		int value = 0;
+		int shift = 0;
+		byte read;
+
+		do {
+			if (shift >= 35)
+				throw new IllegalStateException("Variable length number too long");
+
+			read = input.readByte();
+			value |= (read & 0x7F) << shift;
+			shift += 7;
+
+		} while ((read & 0x80) != 0);
+
+		return value;
+	}
+}
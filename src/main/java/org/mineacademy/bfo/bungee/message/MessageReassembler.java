@@ -0,0 +1,172 @@
+package org.mineacademy.bfo.bungee.message;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.mineacademy.bfo.Common;
+import org.mineacademy.bfo.debug.Debugger;
+
+import com.google.common.io.ByteArrayDataInput;
+import com.google.common.io.ByteStreams;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Collects fragments of messages split by {@link MessageFraming#split(byte[])}
+ * until all of them arrive.
+ * <p>
+ * Incomplete messages are dropped when their fragments stop arriving for the
+ * given timeout, or when they would take more memory than allowed, oldest first.
+ * <p>
+ * Internal use only.
+ */
+@RequiredArgsConstructor
+public final class MessageReassembler {
+
+	/**
+	 * The maximum amount of bytes incomplete messages can take together
+	 */
+	private final long maxPendingBytes;
+
+	/**
+	 * How long we wait for the next fragment of a message before dropping it
+	 */
+	private final long timeoutMillis;
+
+	/**
+	 * Incomplete messages by their source and id, oldest first
+	 */
+	private final Map<String, PartialMessage> pending = new LinkedHashMap<>();
+
+	/**
+	 * The amount of bytes of fragments in {@link #pending}
+	 */
+	private long pendingBytes = 0;
+
+	/**
+	 * Adds the fragment packet received from the given source, such as the server name,
+	 * returning the whole message once all its fragments arrived or null until then
+	 *
+	 * @param source
+	 * @param packet
+	 * @return
+	 */
+	public synchronized byte[] accept(final String source, final byte[] packet) {
+		final long now = System.currentTimeMillis();
+
+		this.removeExpired(now);
+
+		final ByteArrayInputStream stream = new ByteArrayInputStream(packet, 3, packet.length - 3);
+		final ByteArrayDataInput input = ByteStreams.newDataInput(stream);
+
+		final int messageId = MessageFraming.readVarInt(input);
+		final int index = MessageFraming.readVarInt(input);
+		final int count = MessageFraming.readVarInt(input);
+		final String key = source + ":" + messageId;
+
+		if (count < 1 || count > MessageFraming.MAX_FRAGMENTS || index < 0 || index >= count) {
+			Debugger.debug("bungee", "Ignoring invalid fragment " + index + "/" + count + " of message " + key);
+
+			return null;
+		}
+
+		final byte[] chunk = new byte[stream.available()];
+		stream.read(chunk, 0, chunk.length);
+
+		PartialMessage partial = this.pending.get(key);
+
+		if (partial == null) {
+			partial = new PartialMessage(new byte[count][]);
+
+			this.pending.put(key, partial);
+		}
+
+		if (partial.chunks.length != count || partial.chunks[index] != null) {
+			Debugger.debug("bungee", "Ignoring duplicate or mismatching fragment " + index + "/" + count + " of message " + key);
+
+			return null;
+		}
+
+		// Make room by dropping the oldest incomplete messages
+		for (final Iterator<Map.Entry<String, PartialMessage>> it = this.pending.entrySet().iterator(); it.hasNext() && this.pendingBytes + chunk.length > this.maxPendingBytes;) {
+			final Map.Entry<String, PartialMessage> oldest = it.next();
+
+			it.remove();
+			this.pendingBytes -= oldest.getValue().bytes;
+
+			Common.log("Dropped incomplete bungee message " + oldest.getKey() + " (" + oldest.getValue().received + "/" + oldest.getValue().chunks.length + " fragments), reassembly buffer of " + this.maxPendingBytes + " bytes is full.");
+
+			if (oldest.getValue() == partial)
+				return null;
+		}
+
+		partial.chunks[index] = chunk;
+		partial.received++;
+		partial.bytes += chunk.length;
+		partial.lastReceived = now;
+		this.pendingBytes += chunk.length;
+
+		if (partial.received < count)
+			return null;
+
+		this.pending.remove(key);
+		this.pendingBytes -= partial.bytes;
+
+		final byte[] message = new byte[partial.bytes];
+		int position = 0;
+
+		for (final byte[] part : partial.chunks) {
+			System.arraycopy(part, 0, message, position, part.length);
+
+			position += part.length;
+		}
+
+		return message;
+	}
+
+	/*
+	 * Drop messages which fragments stopped arriving
+	 */
+	private void removeExpired(final long now) {
+		for (final Iterator<Map.Entry<String, PartialMessage>> it = this.pending.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<String, PartialMessage> entry = it.next();
+			final PartialMessage partial = entry.getValue();
+
+			if (now - partial.lastReceived > this.timeoutMillis) {
+				it.remove();
+				this.pendingBytes -= partial.bytes;
+
+				Common.log("Dropped incomplete bungee message " + entry.getKey() + " (" + partial.received + "/" + partial.chunks.length + " fragments), timed out after " + this.timeoutMillis + " ms.");
+			}
+		}
+	}
+
+	/*
+	 * Fragments of a message received so far
+	 */
+	@RequiredArgsConstructor
+	private static final class PartialMessage {
+
+		/**
+		 * Fragments by their index, null until received
+		 */
+		private final byte[][] chunks;
+
+		/**
+		 * How many fragments we received
+		 */
+		private int received;
+
+		/**
+		 * The amount of bytes of received fragments
+		 */
+		private int bytes;
+
+		/**
+		 * When we received the last fragment
+		 */
+		private long lastReceived = System.currentTimeMillis();
+	}
+}
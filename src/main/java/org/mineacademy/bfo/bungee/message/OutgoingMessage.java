@@ -1,12 +1,11 @@
 package org.mineacademy.bfo.bungee.message;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.UUID;
 
 import javax.annotation.Nullable;
 
-import org.mineacademy.bfo.Common;
 import org.mineacademy.bfo.Valid;
 import org.mineacademy.bfo.bungee.BungeeListener;
 import org.mineacademy.bfo.bungee.BungeeMessageType;
@@ -33,9 +32,39 @@ import net.md_5.bungee.api.connection.Server;
 public final class OutgoingMessage extends Message {
 
 	/**
-	 * The pending queue to write the message
+	 * The content of the message written so far
 	 */
-	private final List<Object> queue = new ArrayList<>();
+	private final ByteArrayOutputStream content = new ByteArrayOutputStream(64);
+
+	/**
+	 * Writes into {@link #content}
+	 */
+	private final ByteArrayDataOutput output = ByteStreams.newDataOutput(this.content);
+
+	/**
+	 * Should we compress the content regardless of the listener's threshold?
+	 */
+	private boolean compressed = false;
+
+	/**
+	 * The last encoded message, reused until more content is written
+	 */
+	private byte[] encoded;
+
+	/**
+	 * The server name the last message was encoded with
+	 */
+	private String encodedServerName;
+
+	/**
+	 * The packets the last encoded message is sent in, see {@link #toPackets(byte[], String)}
+	 */
+	private byte[][] packets;
+
+	/**
+	 * The encoded message {@link #packets} were made from
+	 */
+	private byte[] packetsSource;
 
 	/**
 	 * Create a new outgoing message, see header of this class
@@ -62,7 +91,7 @@ public final class OutgoingMessage extends Message {
 	 * @param map
 	 */
 	public void write(ConfigSerializable map) {
-		this.write(map.serialize().toJson(), String.class);
+		this.writeUTF(map.serialize().toJson());
 	}
 
 	/**
@@ -71,7 +100,7 @@ public final class OutgoingMessage extends Message {
 	 * @param map
 	 */
 	public void writeMap(SerializedMap map) {
-		this.write(map.toJson(), String.class);
+		this.writeUTF(map.toJson());
 	}
 
 	/**
@@ -81,7 +110,7 @@ public final class OutgoingMessage extends Message {
 	 */
 	public void writeString(String... messages) {
 		for (final String message : messages)
-			this.write(message, String.class);
+			this.writeUTF(message);
 	}
 
 	/**
@@ -90,7 +119,7 @@ public final class OutgoingMessage extends Message {
 	 * @param bool
 	 */
 	public void writeBoolean(boolean bool) {
-		this.write(bool, Boolean.class);
+		this.prepareWrite(Boolean.class).writeBoolean(bool);
 	}
 
 	/**
@@ -99,7 +128,7 @@ public final class OutgoingMessage extends Message {
 	 * @param number
 	 */
 	public void writeByte(byte number) {
-		this.write(number, Byte.class);
+		this.prepareWrite(Byte.class).writeByte(number);
 	}
 
 	/**
@@ -108,7 +137,7 @@ public final class OutgoingMessage extends Message {
 	 * @param number
 	 */
 	public void writeDouble(double number) {
-		this.write(number, Double.class);
+		this.prepareWrite(Double.class).writeDouble(number);
 	}
 
 	/**
@@ -117,7 +146,7 @@ public final class OutgoingMessage extends Message {
 	 * @param number
 	 */
 	public void writeFloat(float number) {
-		this.write(number, Float.class);
+		this.prepareWrite(Float.class).writeFloat(number);
 	}
 
 	/**
@@ -126,7 +155,7 @@ public final class OutgoingMessage extends Message {
 	 * @param number
 	 */
 	public void writeInt(int number) {
-		this.write(number, Integer.class);
+		this.prepareWrite(Integer.class).writeInt(number);
 	}
 
 	/**
@@ -135,7 +164,7 @@ public final class OutgoingMessage extends Message {
 	 * @param number
 	 */
 	public void writeLong(long number) {
-		this.write(number, Long.class);
+		this.prepareWrite(Long.class).writeLong(number);
 	}
 
 	/**
@@ -144,7 +173,7 @@ public final class OutgoingMessage extends Message {
 	 * @param number
 	 */
 	public void writeShort(short number) {
-		this.write(number, Short.class);
+		this.prepareWrite(Short.class).writeShort(number);
 	}
 
 	/**
@@ -153,81 +182,122 @@ public final class OutgoingMessage extends Message {
 	 * @param uuid
 	 */
 	public void writeUUID(UUID uuid) {
-		this.write(uuid, UUID.class);
+		Valid.checkNotNull(uuid, "Added object must not be null!");
+
+		this.prepareWrite(UUID.class).writeUTF(uuid.toString());
+	}
+
+	/*
+	 * Write a string, used by all methods writing strings
+	 */
+	private void writeUTF(String string) {
+		Valid.checkNotNull(string, "Added object must not be null!");
+
+		this.prepareWrite(String.class).writeUTF(string);
 	}
 
 	/**
-	 * Write an object of the given type into the message
+	 * Return the output to write an object of the given type into the message
 	 * <p>
 	 * We move the head and ensure writing safety in accordance
 	 * to the {@link BungeeMessageType#getContent()} length and
 	 * data type at the given position
 	 *
-	 * @param object
 	 * @param typeOf
+	 * @return
 	 */
-	private void write(Object object, Class<?> typeOf) {
-		Valid.checkNotNull(object, "Added object must not be null!");
-
+	private ByteArrayDataOutput prepareWrite(Class<?> typeOf) {
 		this.moveHead(typeOf);
-		this.queue.add(object);
+		this.encoded = null;
+
+		return this.output;
 	}
 
 	/**
-	 * Delegate write methods for the byte array data output
-	 * based on the queue
+	 * Return the message with the header for the given server name and the content
+	 * written so far. The result is reused until you write more content, do not modify it.
 	 *
 	 * @param serverName
 	 * @return
 	 */
 	public byte[] getData(String serverName) {
-		final ByteArrayDataOutput out = ByteStreams.newDataOutput();
+		if (this.encoded != null && serverName.equals(this.encodedServerName))
+			return this.encoded;
+
+		final ByteArrayOutputStream message = new ByteArrayOutputStream(this.content.size() + serverName.length() + 64);
+		final ByteArrayDataOutput out = ByteStreams.newDataOutput(message);
 
 		// -----------------------------------------------------------------
-		// We are automatically writing the first two strings assuming the
-		// first is the senders server name and the second is the action
+		// We are automatically writing the header with the channel, sender
+		// server name and the action, see MessageFraming for binary format
 		// -----------------------------------------------------------------
 
-		out.writeUTF(this.getListener().getChannel());
-		out.writeUTF(UUID.fromString("00000000-0000-0000-0000-000000000000").toString());
-		out.writeUTF(serverName);
-		out.writeUTF(this.getAction().name());
+		if (this.getListener().isLegacyFormat()) {
+			out.write(this.getListener().getLegacyHeader());
+			out.writeUTF(serverName);
+			out.writeUTF(this.getAction().name());
 
-		for (final Object object : this.queue)
-			if (object instanceof String)
-				out.writeUTF((String) object);
+		} else {
+			final int threshold = this.getListener().getCompressionThreshold();
+			final byte[] deflated = this.compressed || threshold != -1 && this.content.size() >= threshold ? MessageCompression.deflate(this.content.toByteArray()) : null;
 
-			else if (object instanceof Boolean)
-				out.writeBoolean((Boolean) object);
+			out.write(this.getListener().getBinaryHeader(this.getAction()));
+			out.writeByte(deflated != null ? MessageFraming.FLAG_DEFLATED : 0);
+			out.writeUTF(serverName);
 
-			else if (object instanceof Byte)
-				out.writeByte((Byte) object);
+			if (deflated != null) {
+				out.write(deflated);
 
-			else if (object instanceof Double)
-				out.writeDouble((Double) object);
+				return this.remember(message.toByteArray(), serverName);
+			}
+		}
+
+		try {
+			this.content.writeTo(message);
 
-			else if (object instanceof Float)
-				out.writeFloat((Float) object);
+		} catch (final IOException ex) {
+			throw new FoException(ex, "Failed to write content of " + this.getAction() + " message on channel " + this.getChannel());
+		}
 
-			else if (object instanceof Integer)
-				out.writeInt((Integer) object);
+		return this.remember(message.toByteArray(), serverName);
+	}
 
-			else if (object instanceof Long)
-				out.writeLong((Long) object);
+	/*
+	 * Reuse the encoded message until more content is written
+	 */
+	private byte[] remember(byte[] encoded, String serverName) {
+		this.encoded = encoded;
+		this.encodedServerName = serverName;
 
-			else if (object instanceof Short)
-				out.writeShort((Short) object);
+		return encoded;
+	}
 
-			else if (object instanceof byte[])
-				out.write((byte[]) object);
+	/**
+	 * Compress the content of this message using Deflate regardless of
+	 * {@link BungeeListener#getCompressionThreshold()}. Content which does not
+	 * get smaller is sent as it is.
+	 * <p>
+	 * Only used when the listener does not use the legacy format.
+	 *
+	 * @param compressed
+	 */
+	public void setCompressed(boolean compressed) {
+		this.compressed = compressed;
+		this.encoded = null;
+	}
 
-			else if (object instanceof UUID)
-				out.writeUTF(object.toString());
+	/*
+	 * Return the packets to send the message from the given server in, or null if it is too large
+	 */
+	private byte[][] getPackets(String serverName, String logPrefix) {
+		final byte[] data = this.getData(serverName);
 
-			else
-				throw new FoException("Unsupported write of " + object.getClass().getSimpleName() + " to channel " + this.getChannel() + " with action " + this.getAction().toString());
+		if (data != this.packetsSource) {
+			this.packets = this.toPackets(data, logPrefix);
+			this.packetsSource = data;
+		}
 
-		return out.toByteArray();
+		return this.packets;
 	}
 
 	/**
@@ -237,22 +307,19 @@ public final class OutgoingMessage extends Message {
 	 * @param info
 	 */
 	public void sendToServer(String fromServer, ServerInfo info) {
+		final byte[][] packets = this.getPackets(fromServer, "outgoing-sendToServer");
 
-		if (info.getPlayers().isEmpty()) {
-			Debugger.debug("bungee", "NOT sending data on " + this.getChannel() + " channel from " + this.getAction() + " to " + info.getName() + " server because it is empty.");
-
+		if (packets == null)
 			return;
-		}
-
-		final byte[] data = this.getData(fromServer);
 
-		if (data.length > 32_000) { // Safety margin
-			Common.log("[outgoing-sendToServer] Outgoing bungee message was oversized, not sending. Max length: 32766 bytes, got " + data.length + " bytes.");
+		if (info.getPlayers().isEmpty()) {
+			this.holdForEmptyServer(info, packets);
 
 			return;
 		}
 
-		info.sendData(BungeeListener.DEFAULT_CHANNEL, data);
+		this.sendPackets(info, packets);
+
 		Debugger.debug("bungee", "Forwarding data on " + this.getChannel() + " channel from " + this.getAction() + " to " + info.getName() + " server.");
 	}
 
@@ -270,21 +337,24 @@ public final class OutgoingMessage extends Message {
 
 		Valid.checkBoolean(connection instanceof Server, "Connection must be ServerConnection");
 
-		if (((Server) connection).getInfo().getPlayers().isEmpty()) {
-			Debugger.debug("bungee", "NOT sending data on " + this.getChannel() + " channel from " + this.getAction() + " to " + ((Server) connection).getInfo().getName() + " server because it is empty.");
+		final byte[][] packets = this.getPackets(fromServer, "outgoing-send");
 
+		if (packets == null)
 			return;
-		}
 
-		final byte[] data = this.getData(fromServer);
-
-		if (data.length > 32_000) { // Safety margin
-			Common.log("[outgoing-send] Outgoing bungee message was oversized, not sending. Max length: 32766 bytes, got " + data.length + " bytes.");
+		if (((Server) connection).getInfo().getPlayers().isEmpty()) {
+			this.holdForEmptyServer(((Server) connection).getInfo(), packets);
 
 			return;
 		}
 
-		((Server) connection).sendData(BungeeListener.DEFAULT_CHANNEL, data);
+		if (this.getListener().isBatching() && !this.getListener().isLegacyFormat())
+			this.sendPackets(((Server) connection).getInfo(), packets);
+
+		else
+			for (final byte[] packet : packets)
+				((Server) connection).sendData(BungeeListener.DEFAULT_CHANNEL, packet);
+
 		Debugger.debug("bungee", "Sending data on " + this.getChannel() + " channel from " + this.getAction() + " to " + ((Server) connection).getInfo().getName() + " server.");
 	}
 
@@ -303,29 +373,26 @@ public final class OutgoingMessage extends Message {
 	 */
 	public void broadcastExcept(@Nullable String ignoredServerName) {
 		final String channel = this.getChannel();
-		final byte[] data = this.getData("");
-
-		if (data.length > 32_000) { // Safety margin
-			Common.log("[outgoing-broadcastExcept] Outgoing message was oversized, not sending. Max length: 32766 bytes, got " + data.length + " bytes. Channel: " + this.getListener().getChannel()
-					+ ", action: " + this.getAction().name() + ", queue: " + queue);
+		final byte[][] packets = this.getPackets("", "outgoing-broadcastExcept");
 
+		if (packets == null)
 			return;
-		}
 
 		for (final ServerInfo server : Remain.getServers()) {
-			if (server.getPlayers().isEmpty()) {
-				Debugger.debug("bungee", "NOT sending data on " + channel + " channel from " + this.getAction() + " to " + server.getName() + " server because it is empty.");
+			if (ignoredServerName != null && server.getName().equalsIgnoreCase(ignoredServerName)) {
+				Debugger.debug("bungee", "NOT sending data on " + channel + " channel from " + this.getAction() + " to " + server.getName() + " server because it is ignored.");
 
 				continue;
 			}
 
-			if (ignoredServerName != null && server.getName().equalsIgnoreCase(ignoredServerName)) {
-				Debugger.debug("bungee", "NOT sending data on " + channel + " channel from " + this.getAction() + " to " + server.getName() + " server because it is ignored.");
+			if (server.getPlayers().isEmpty()) {
+				this.holdForEmptyServer(server, packets);
 
 				continue;
 			}
 
-			server.sendData(BungeeListener.DEFAULT_CHANNEL, data);
+			this.sendPackets(server, packets);
+
 			Debugger.debug("bungee", "Sending data on " + channel + " channel from " + this.getAction() + " to " + server.getName() + " server.");
 		}
 	}
@@ -0,0 +1,283 @@
+package org.mineacademy.bfo.bungee.message;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mineacademy.bfo.Common;
+import org.mineacademy.bfo.bungee.BungeeListener;
+import org.mineacademy.bfo.debug.Debugger;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import net.md_5.bungee.api.config.ServerInfo;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * Holds packets for servers without players, since plugin messages can only
+ * be sent through a player, until a player joins the server or the packets
+ * expire, see {@link BungeeListener#getPendingMessageTtlSeconds()}
+ * <p>
+ * Each server holds at most {@link #MAX_PACKETS_PER_SERVER} packets and
+ * {@link #MAX_BYTES_PER_SERVER} bytes, the oldest messages are dropped first.
+ * Packets of one message are always kept or dropped together, and a message
+ * over these limits on its own is not held at all.
+ * <p>
+ * Internal use only, except for the counters.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class PendingMessages {
+
+	/**
+	 * The maximum amount of packets we hold for one server
+	 */
+	public static final int MAX_PACKETS_PER_SERVER = 1_000;
+
+	/**
+	 * The maximum amount of bytes we hold for one server
+	 */
+	public static final int MAX_BYTES_PER_SERVER = 2 * 1024 * 1024;
+
+	/**
+	 * How often we remove expired packets of servers nobody joins
+	 */
+	private static final int EXPIRY_INTERVAL_TICKS = 20 * 60;
+
+	/**
+	 * Packets waiting for a player by server name
+	 */
+	private static final Map<String, ServerQueue> queues = new HashMap<>();
+
+	/**
+	 * The repeating task removing expired packets
+	 */
+	private static ScheduledTask expiryTask;
+
+	/*
+	 * Counters, see getters below
+	 */
+	private static final AtomicLong queued = new AtomicLong();
+	private static final AtomicLong delivered = new AtomicLong();
+	private static final AtomicLong expired = new AtomicLong();
+	private static final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * Hold the packets of one message for the server for the given time
+	 *
+	 * @param server
+	 * @param packets
+	 * @param ttlMillis
+	 */
+	static synchronized void add(final ServerInfo server, final byte[][] packets, final long ttlMillis) {
+		final long now = System.currentTimeMillis();
+		final PendingMessage message = new PendingMessage(packets, now + ttlMillis);
+
+		// Would not fit even into an empty queue, so do not drop others for it
+		if (packets.length > MAX_PACKETS_PER_SERVER || message.bytes > MAX_BYTES_PER_SERVER) {
+			dropped.addAndGet(packets.length);
+
+			Debugger.debug("bungee", "Dropped message of " + packets.length + " packet(s) and " + message.bytes + " bytes for " + server.getName() + " server, it is over the limits of held messages.");
+			return;
+		}
+
+		ServerQueue queue = queues.get(server.getName());
+
+		if (queue == null) {
+			queue = new ServerQueue();
+
+			queues.put(server.getName(), queue);
+		}
+
+		queue.removeExpired(now);
+
+		// A message missing some of its fragments could never be put together, so drop whole messages
+		while (!queue.messages.isEmpty() && (queue.packetCount + packets.length > MAX_PACKETS_PER_SERVER || queue.bytes + message.bytes > MAX_BYTES_PER_SERVER))
+			dropped.addAndGet(queue.removeOldest().packets.length);
+
+		queue.add(message);
+		queued.addAndGet(packets.length);
+	}
+
+	/**
+	 * Start removing expired packets in the background, so that we do not hold them for
+	 * servers nobody sends to or joins anymore. Called when the plugin starts or reloads.
+	 */
+	public static synchronized void startExpiring() {
+		if (expiryTask != null)
+			expiryTask.cancel();
+
+		expiryTask = Common.runTimerAsync(EXPIRY_INTERVAL_TICKS, EXPIRY_INTERVAL_TICKS, PendingMessages::removeExpired);
+	}
+
+	/*
+	 * Remove expired packets of all servers, forgetting servers with nothing left
+	 */
+	private static synchronized void removeExpired() {
+		final long now = System.currentTimeMillis();
+
+		for (final Iterator<ServerQueue> it = queues.values().iterator(); it.hasNext();) {
+			final ServerQueue queue = it.next();
+
+			queue.removeExpired(now);
+
+			if (queue.messages.isEmpty())
+				it.remove();
+		}
+	}
+
+	/**
+	 * Send packets held for the server which did not expire yet, call when a player joins it
+	 *
+	 * @param server
+	 */
+	public static void flush(final ServerInfo server) {
+		final ServerQueue queue;
+
+		synchronized (PendingMessages.class) {
+			queue = queues.remove(server.getName());
+		}
+
+		if (queue == null)
+			return;
+
+		queue.removeExpired(System.currentTimeMillis());
+
+		for (final PendingMessage message : queue.messages)
+			for (final byte[] packet : message.packets)
+				server.sendData(BungeeListener.DEFAULT_CHANNEL, packet);
+
+		delivered.addAndGet(queue.packetCount);
+
+		if (queue.packetCount > 0)
+			Debugger.debug("bungee", "Sent " + queue.packetCount + " packet(s) held for " + server.getName() + " server until a player joined.");
+	}
+
+	/**
+	 * Return how many packets we held for servers without players
+	 *
+	 * @return
+	 */
+	public static long getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * Return how many held packets we sent once a player joined
+	 *
+	 * @return
+	 */
+	public static long getDelivered() {
+		return delivered.get();
+	}
+
+	/**
+	 * Return how many held packets expired before a player joined
+	 *
+	 * @return
+	 */
+	public static long getExpired() {
+		return expired.get();
+	}
+
+	/**
+	 * Return how many held packets we dropped because too many were held for the server
+	 *
+	 * @return
+	 */
+	public static long getDropped() {
+		return dropped.get();
+	}
+
+	/*
+	 * Messages held for one server, oldest first
+	 */
+	private static final class ServerQueue {
+
+		/**
+		 * The messages
+		 */
+		private final ArrayDeque<PendingMessage> messages = new ArrayDeque<>();
+
+		/**
+		 * The amount of packets of the messages
+		 */
+		private int packetCount;
+
+		/**
+		 * The amount of bytes of the messages
+		 */
+		private int bytes;
+
+		/*
+		 * Add the message as the newest one
+		 */
+		private void add(final PendingMessage message) {
+			this.messages.add(message);
+			this.packetCount += message.packets.length;
+			this.bytes += message.bytes;
+		}
+
+		/*
+		 * Remove and return the oldest message
+		 */
+		private PendingMessage removeOldest() {
+			final PendingMessage message = this.messages.poll();
+
+			this.packetCount -= message.packets.length;
+			this.bytes -= message.bytes;
+
+			return message;
+		}
+
+		/*
+		 * Remove messages which expired
+		 */
+		private void removeExpired(final long now) {
+			for (final Iterator<PendingMessage> it = this.messages.iterator(); it.hasNext();) {
+				final PendingMessage message = it.next();
+
+				if (now >= message.expiresAt) {
+					it.remove();
+					this.packetCount -= message.packets.length;
+					this.bytes -= message.bytes;
+
+					expired.addAndGet(message.packets.length);
+				}
+			}
+		}
+	}
+
+	/*
+	 * Packets of one message held until the given time
+	 */
+	private static final class PendingMessage {
+
+		/**
+		 * The packets, more than one if the message was split into fragments
+		 */
+		private final byte[][] packets;
+
+		/**
+		 * The amount of bytes of the packets
+		 */
+		private final int bytes;
+
+		/**
+		 * When we stop holding the message
+		 */
+		private final long expiresAt;
+
+		private PendingMessage(final byte[][] packets, final long expiresAt) {
+			int bytes = 0;
+
+			for (final byte[] packet : packets)
+				bytes += packet.length;
+
+			this.packets = packets;
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,311 @@
+package org.mineacademy.bfo.collection;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.mineacademy.bfo.exception.FoException;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * Encodes serialized values into compact tagged binary form, used by
+ * {@link SerializedMap#toBytes()} and {@link SerializedMap#fromBytes(byte[])}
+ * <p>
+ * The first byte is the format version followed by a flags byte. The rest is
+ * a tagged value tree where numbers are written as varints and strings, lists
+ * and maps are length-prefixed, optionally compressed using Deflate.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+final class CompactMapFormat {
+
+	/**
+	 * The current format version, written as the first byte
+	 */
+	static final byte VERSION = 1;
+
+	/**
+	 * Flag indicating the payload after the header is compressed
+	 */
+	private static final byte FLAG_DEFLATED = 0x01;
+
+	/**
+	 * Payloads smaller than this many bytes are not worth compressing
+	 */
+	private static final int DEFLATE_THRESHOLD = 512;
+
+	/*
+	 * Value tags
+	 */
+	private static final byte TAG_NULL = 0;
+	private static final byte TAG_STRING = 1;
+	private static final byte TAG_INT = 2;
+	private static final byte TAG_LONG = 3;
+	private static final byte TAG_DOUBLE = 4;
+	private static final byte TAG_FLOAT = 5;
+	private static final byte TAG_TRUE = 6;
+	private static final byte TAG_FALSE = 7;
+	private static final byte TAG_LIST = 8;
+	private static final byte TAG_MAP = 9;
+
+	/**
+	 * Encodes the given serialized value, typically the result of {@link SerializedMap#serialize()}
+	 *
+	 * @param value
+	 * @return
+	 */
+	static byte[] encode(final Object value) {
+		try {
+			final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+			writeValue(new DataOutputStream(payload), value);
+
+			final ByteArrayOutputStream result = new ByteArrayOutputStream(payload.size() + 2);
+			final boolean deflate = payload.size() >= DEFLATE_THRESHOLD;
+
+			result.write(VERSION);
+			result.write(deflate ? FLAG_DEFLATED : 0);
+
+			if (deflate) {
+				final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+				try (DeflaterOutputStream deflaterStream = new DeflaterOutputStream(result, deflater)) {
+					payload.writeTo(deflaterStream);
+
+				} finally {
+					deflater.end();
+				}
+
+			} else
+				payload.writeTo(result);
+
+			return result.toByteArray();
+
+		} catch (final IOException ex) {
+			throw new FoException(ex, "Failed to encode " + value);
+		}
+	}
+
+	/**
+	 * Decodes the value encoded using {@link #encode(Object)}, maps are returned
+	 * as {@link LinkedHashMap} and lists as {@link ArrayList}
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	static Object decode(final byte[] bytes) {
+		if (bytes.length < 2)
+			throw new FoException("Compact data too short, got " + bytes.length + " bytes");
+
+		final byte version = bytes[0];
+
+		if (version != VERSION)
+			throw new FoException("Unsupported compact data version " + version + ", expected " + VERSION);
+
+		InputStream input = new ByteArrayInputStream(bytes, 2, bytes.length - 2);
+
+		if ((bytes[1] & FLAG_DEFLATED) != 0)
+			input = new InflaterInputStream(input);
+
+		try (DataInputStream dataInput = new DataInputStream(input)) {
+			return readValue(dataInput);
+
+		} catch (final IOException ex) {
+			throw new FoException(ex, "Failed to decode " + bytes.length + " bytes of compact data");
+		}
+	}
+
+	/*
+	 * Write a single tagged value
+	 */
+	private static void writeValue(final DataOutputStream output, final Object value) throws IOException {
+		if (value == null)
+			output.writeByte(TAG_NULL);
+
+		else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+			output.writeByte(TAG_INT);
+			writeVarLong(output, ((Number) value).intValue());
+
+		} else if (value instanceof Long) {
+			output.writeByte(TAG_LONG);
+			writeVarLong(output, (Long) value);
+
+		} else if (value instanceof Double) {
+			output.writeByte(TAG_DOUBLE);
+			output.writeDouble((Double) value);
+
+		} else if (value instanceof Float) {
+			output.writeByte(TAG_FLOAT);
+			output.writeFloat((Float) value);
+
+		} else if (value instanceof Boolean)
+			output.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+
+		else if (value instanceof Map) {
+			final Map<?, ?> map = (Map<?, ?>) value;
+
+			output.writeByte(TAG_MAP);
+			writeVarLong(output, map.size());
+
+			for (final Map.Entry<?, ?> entry : map.entrySet()) {
+				writeString(output, String.valueOf(entry.getKey()));
+				writeValue(output, entry.getValue());
+			}
+
+		} else if (value instanceof Collection || value instanceof Object[]) {
+			final Collection<?> list = value instanceof Object[] ? Arrays.asList((Object[]) value) : (Collection<?>) value;
+
+			output.writeByte(TAG_LIST);
+			writeVarLong(output, list.size());
+
+			for (final Object element : list)
+				writeValue(output, element);
+
+		} else {
+			output.writeByte(TAG_STRING);
+			writeString(output, value.toString());
+		}
+	}
+
+	/*
+	 * Read a single tagged value
+	 */
+	private static Object readValue(final DataInputStream input) throws IOException {
+		final byte tag = input.readByte();
+
+		switch (tag) {
+			case TAG_NULL:
+				return null;
+
+			case TAG_STRING:
+				return readString(input);
+
+			case TAG_INT:
+				return (int) readVarLong(input);
+
+			case TAG_LONG:
+				return readVarLong(input);
+
+			case TAG_DOUBLE:
+				return input.readDouble();
+
+			case TAG_FLOAT:
+				return input.readFloat();
+
+			case TAG_TRUE:
+				return true;
+
+			case TAG_FALSE:
+				return false;
+
+			case TAG_LIST: {
+				final int size = readSize(input);
+				final List<Object> list = new ArrayList<>(Math.min(size, 1024));
+
+				for (int i = 0; i < size; i++)
+					list.add(readValue(input));
+
+				return list;
+			}
+
+			case TAG_MAP: {
+				final int size = readSize(input);
+				final Map<String, Object> map = new LinkedHashMap<>(Math.min(size, 1024) * 4 / 3 + 1);
+
+				for (int i = 0; i < size; i++) {
+					final String key = readString(input);
+
+					map.put(key, readValue(input));
+				}
+
+				return map;
+			}
+
+			default:
+				throw new IOException("Unknown value tag " + tag);
+		}
+	}
+
+	/*
+	 * Write an UTF-8 string prefixed with its length
+	 */
+	private static void writeString(final DataOutputStream output, final String string) throws IOException {
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+
+		writeVarLong(output, bytes.length);
+		output.write(bytes);
+	}
+
+	/*
+	 * Read an UTF-8 string prefixed with its length
+	 */
+	private static String readString(final DataInputStream input) throws IOException {
+		final byte[] bytes = new byte[readSize(input)];
+
+		input.readFully(bytes);
+
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Read a length, protecting against corrupted data
+	 */
+	private static int readSize(final DataInputStream input) throws IOException {
+		final long size = readVarLong(input);
+
+		if (size < 0 || size > Integer.MAX_VALUE - 8)
+			throw new IOException("Invalid length " + size);
+
+		return (int) size;
+	}
+
+	/*
+	 * Write a zigzag encoded variable length number, small numbers take a single byte
+	 */
+	private static void writeVarLong(final DataOutputStream output, final long value) throws IOException {
+		long zigzag = value << 1 ^ value >> 63;
+
+		while ((zigzag & ~0x7FL) != 0) {
+			output.writeByte((int) (zigzag & 0x7F | 0x80));
+
+			zigzag >>>= 7;
+		}
+
+		output.writeByte((int) zigzag);
+	}
+
+	/*
+	 * Read a zigzag encoded variable length number
+	 */
+	private static long readVarLong(final DataInputStream input) throws IOException {
+		long zigzag = 0;
+		int shift = 0;
+		byte read;
+
+		do {
+			if (shift >= 64)
+				throw new IOException("Variable length number too long");
+
+			read = input.readByte();
+			zigzag |= (long) (read & 0x7F) << shift;
+			shift += 7;
+
+		} while ((read & 0x80) != 0);
+
+		return zigzag >>> 1 ^ -(zigzag & 1);
+	}
+}
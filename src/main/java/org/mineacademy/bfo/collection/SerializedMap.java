@@ -837,6 +837,16 @@ public final class SerializedMap extends StrictCollection implements Iterable<Ma
 		}
 	}
 
+	/**
+	 * Converts this map into compact binary form that is smaller and faster
+	 * to read than JSON, see {@link #fromBytes(byte[])}
+	 *
+	 * @return
+	 */
+	public byte[] toBytes() {
+		return CompactMapFormat.encode(this.serialize());
+	}
+
 	/**
 	 * @see Map#isEmpty()
 	 *
@@ -1059,4 +1069,19 @@ public final class SerializedMap extends StrictCollection implements Iterable<Ma
 			return null;
 		}
 	}
+
+	/**
+	 * Parses the map from bytes made by {@link #toBytes()}
+	 *
+	 * @param bytes
+	 * @return
+	 */
+	public static SerializedMap fromBytes(@NonNull final byte[] bytes) {
+		final Object decoded = CompactMapFormat.decode(bytes);
+
+		if (decoded instanceof Map)
+			return SerializedMap.of(decoded);
+
+		throw new FoException("Unable to deserialize " + (decoded != null ? decoded.getClass() : "null") + " from compact data");
+	}
 }
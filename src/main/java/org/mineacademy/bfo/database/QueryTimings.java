@@ -0,0 +1,242 @@
+package org.mineacademy.bfo.database;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.mineacademy.bfo.MathUtil;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Timings of all statements with the same shape run by {@link SimpleDatabase},
+ * see {@link SimpleDatabase#getQueryTimings()}
+ * <p>
+ * The shape is the SQL with values replaced by ? so that for example all loads
+ * of different players are measured together.
+ * <p>
+ * We measure how long we waited for a connection separately from how long the
+ * database took to execute the statement. Latencies are kept in histograms with
+ * four buckets per power of two, so percentiles are accurate to about 25%.
+ */
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class QueryTimings {
+
+	/**
+	 * How many buckets the histograms have, enough for over 12 days in microseconds
+	 */
+	private static final int BUCKETS = 160;
+
+	/**
+	 * The maximum length of SQL we normalize, longer queries are cut
+	 */
+	private static final int MAX_SHAPE_LENGTH = 1024;
+
+	/*
+	 * Patterns used to normalize SQL into its shape
+	 */
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.|'')*'");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+	private static final Pattern VALUE_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+	private static final Pattern ROW_LIST = Pattern.compile("(\\([^()]*\\))(?:\\s*,\\s*\\([^()]*\\))+");
+
+	/**
+	 * The normalized SQL
+	 */
+	@Getter
+	private final String shape;
+
+	/**
+	 * How many times a statement of this shape has run
+	 */
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * The total time spent waiting for a connection
+	 */
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+
+	/**
+	 * The total time spent executing
+	 */
+	private final AtomicLong totalExecutionNanos = new AtomicLong();
+
+	/**
+	 * The longest execution time
+	 */
+	private final AtomicLong maxExecutionNanos = new AtomicLong();
+
+	/**
+	 * Counts of waiting times in microseconds
+	 */
+	private final AtomicLongArray waitHistogram = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Counts of execution times in microseconds
+	 */
+	private final AtomicLongArray executionHistogram = new AtomicLongArray(BUCKETS);
+
+	/*
+	 * Records a single statement
+	 */
+	void record(final long waitNanos, final long executionNanos) {
+		this.count.incrementAndGet();
+		this.totalWaitNanos.addAndGet(waitNanos);
+		this.totalExecutionNanos.addAndGet(executionNanos);
+		this.maxExecutionNanos.accumulateAndGet(executionNanos, Math::max);
+
+		this.waitHistogram.incrementAndGet(getBucket(waitNanos / 1_000));
+		this.executionHistogram.incrementAndGet(getBucket(executionNanos / 1_000));
+	}
+
+	/**
+	 * Return how many times a statement of this shape has run
+	 *
+	 * @return
+	 */
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * Return the average time waited for a connection in milliseconds
+	 *
+	 * @return
+	 */
+	public double getAverageWaitMillis() {
+		final long count = this.count.get();
+
+		return count == 0 ? 0 : this.totalWaitNanos.get() / 1_000_000D / count;
+	}
+
+	/**
+	 * Return the average execution time in milliseconds
+	 *
+	 * @return
+	 */
+	public double getAverageExecutionMillis() {
+		final long count = this.count.get();
+
+		return count == 0 ? 0 : this.totalExecutionNanos.get() / 1_000_000D / count;
+	}
+
+	/**
+	 * Return the longest execution time in milliseconds
+	 *
+	 * @return
+	 */
+	public double getMaxExecutionMillis() {
+		return this.maxExecutionNanos.get() / 1_000_000D;
+	}
+
+	/**
+	 * Return the time waited for a connection in milliseconds that the given percent
+	 * of statements did not exceed, such as 99 for p99
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	public double getWaitPercentile(final double percentile) {
+		return getPercentile(this.waitHistogram, percentile);
+	}
+
+	/**
+	 * Return the execution time in milliseconds that the given percent
+	 * of statements did not exceed, such as 99 for p99
+	 *
+	 * @param percentile
+	 * @return
+	 */
+	public double getExecutionPercentile(final double percentile) {
+		return getPercentile(this.executionHistogram, percentile);
+	}
+
+	@Override
+	public String toString() {
+		return this.shape + " - " + this.getCount() + "x, execution p50/p95/p99 "
+				+ MathUtil.formatTwoDigits(this.getExecutionPercentile(50)) + "/"
+				+ MathUtil.formatTwoDigits(this.getExecutionPercentile(95)) + "/"
+				+ MathUtil.formatTwoDigits(this.getExecutionPercentile(99)) + " ms (max "
+				+ MathUtil.formatTwoDigits(this.getMaxExecutionMillis()) + " ms), waiting p50/p95/p99 "
+				+ MathUtil.formatTwoDigits(this.getWaitPercentile(50)) + "/"
+				+ MathUtil.formatTwoDigits(this.getWaitPercentile(95)) + "/"
+				+ MathUtil.formatTwoDigits(this.getWaitPercentile(99)) + " ms";
+	}
+
+	/*
+	 * Return the upper bound of the bucket containing the given percentile in milliseconds
+	 */
+	private static double getPercentile(final AtomicLongArray histogram, final double percentile) {
+		final long[] counts = new long[BUCKETS];
+		long total = 0;
+
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			counts[bucket] = histogram.get(bucket);
+			total += counts[bucket];
+		}
+
+		if (total == 0)
+			return 0;
+
+		final long target = Math.max(1, (long) Math.ceil(total * MathUtil.range(percentile, 0D, 100D) / 100D));
+		long seen = 0;
+
+		for (int bucket = 0; bucket < BUCKETS; bucket++) {
+			seen += counts[bucket];
+
+			if (seen >= target)
+				return getBucketUpperBound(bucket) / 1_000D;
+		}
+
+		return getBucketUpperBound(BUCKETS - 1) / 1_000D;
+	}
+
+	/*
+	 * Return the histogram bucket for the given amount of microseconds, values below 8
+	 * have their own bucket and higher values are split into four buckets per power of two
+	 */
+	private static int getBucket(final long micros) {
+		if (micros < 8)
+			return (int) Math.max(0, micros);
+
+		final int highestBit = 63 - Long.numberOfLeadingZeros(micros);
+		final int subBucket = (int) (micros >>> highestBit - 2 & 3);
+
+		return Math.min(BUCKETS - 1, 8 + (highestBit - 3) * 4 + subBucket);
+	}
+
+	/*
+	 * Return the highest amount of microseconds in the given bucket
+	 */
+	private static long getBucketUpperBound(final int bucket) {
+		if (bucket < 8)
+			return bucket;
+
+		final int highestBit = (bucket - 8) / 4 + 3;
+		final int subBucket = (bucket - 8) % 4;
+
+		return (4L + subBucket + 1 << highestBit - 2) - 1;
+	}
+
+	/**
+	 * Return the shape of the given SQL, replacing values with ? and
+	 * collapsing lists of values and rows
+	 *
+	 * @param sql
+	 * @return
+	 */
+	static String normalize(final String sql) {
+		String shape = sql.length() > MAX_SHAPE_LENGTH ? sql.substring(0, MAX_SHAPE_LENGTH) + "..." : sql;
+
+		shape = STRING_LITERAL.matcher(shape).replaceAll("?");
+		shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+		shape = WHITESPACE.matcher(shape).replaceAll(" ");
+		shape = VALUE_LIST.matcher(shape).replaceAll("?, ...");
+		shape = ROW_LIST.matcher(shape).replaceAll("$1, ...");
+
+		return shape.trim();
+	}
+}
@@ -0,0 +1,93 @@
+package org.mineacademy.bfo.database;
+
+import javax.sql.DataSource;
+
+import org.mineacademy.bfo.ReflectionUtil;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * A read-only copy of the primary database that {@link SimpleDatabase} routes
+ * reads to, see {@link SimpleDatabase#addReadReplica(String, String, String)}
+ */
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+final class ReadReplica {
+
+	/**
+	 * The connecting URL
+	 */
+	@Getter
+	private final String url;
+
+	/**
+	 * The HikariCP pool for this replica
+	 */
+	@Getter
+	private final DataSource dataSource;
+
+	/**
+	 * The moving average of read execution times without the time spent passing
+	 * rows on, 0 if we have not read yet
+	 */
+	@Getter
+	private volatile long averageNanos = 0;
+
+	/**
+	 * When we may use this replica again after it failed, 0 if it did not
+	 */
+	private volatile long ejectedUntil = 0;
+
+	/**
+	 * Return true unless the replica recently failed
+	 *
+	 * @return
+	 */
+	boolean isAvailable() {
+		final long ejectedUntil = this.ejectedUntil;
+
+		return ejectedUntil == 0 || System.currentTimeMillis() >= ejectedUntil;
+	}
+
+	/**
+	 * Adds the execution time of a read to the moving average. Concurrent reads
+	 * may overwrite each other's update, which is fine for picking a replica
+	 *
+	 * @param nanos
+	 */
+	void recordLatency(final long nanos) {
+		final long average = this.averageNanos;
+
+		// Never go back to 0 so that we are not treated as unmeasured again
+		this.averageNanos = Math.max(1, average == 0 ? nanos : average + (nanos - average) / 5);
+		this.ejectedUntil = 0;
+	}
+
+	/**
+	 * Stop using this replica for the given time, returning true if it was
+	 * available until now so that each failure is only reported once
+	 *
+	 * @param millis
+	 * @return
+	 */
+	boolean eject(final long millis) {
+		final boolean wasAvailable = this.isAvailable();
+
+		this.ejectedUntil = System.currentTimeMillis() + millis;
+
+		return wasAvailable;
+	}
+
+	/**
+	 * Shut down the pool
+	 */
+	void close() {
+		ReflectionUtil.invoke("close", this.dataSource);
+	}
+
+	@Override
+	public String toString() {
+		return "ReadReplica{" + this.url + "}";
+	}
+}
@@ -0,0 +1,258 @@
+package org.mineacademy.bfo.database;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.mineacademy.bfo.ReflectionUtil;
+import org.mineacademy.bfo.SerializeUtil;
+import org.mineacademy.bfo.Valid;
+import org.mineacademy.bfo.collection.SerializedMap;
+import org.mineacademy.bfo.exception.FoException;
+import org.mineacademy.bfo.model.ConfigSerializable;
+
+import lombok.NonNull;
+
+/**
+ * Reads rows of a result set into new objects of the given class. Columns are
+ * matched only once per result set, each row is then read by column index.
+ * <p>
+ * {@link ConfigSerializable} classes are created using their
+ * public static deserialize(SerializedMap) method receiving a map of column labels
+ * and values. Other classes need a no arguments constructor and we set fields named
+ * as columns (case insensitive), other columns are ignored.
+ * <p>
+ * A mapper remembers the last result set it read, so create a new one per query
+ * and do not share it between threads.
+ *
+ * @param <T>
+ */
+public final class RowMapper<T> {
+
+	/**
+	 * The class we are creating
+	 */
+	private final Class<T> type;
+
+	/**
+	 * The deserialize method for {@link ConfigSerializable} classes, or null
+	 */
+	private final Method deserializer;
+
+	/**
+	 * The no arguments constructor for other classes, or null
+	 */
+	private final Constructor<T> constructor;
+
+	/**
+	 * The result set the columns were matched for
+	 */
+	private ResultSet resultSet;
+
+	/**
+	 * Column labels by column index - 1, for {@link ConfigSerializable} classes
+	 */
+	private String[] labels;
+
+	/**
+	 * Setters for columns matching fields, for other classes
+	 */
+	private ColumnSetter[] setters;
+
+	/**
+	 * Create a new row mapper for the given class
+	 *
+	 * @param type
+	 */
+	public RowMapper(@NonNull final Class<T> type) {
+		this.type = type;
+
+		if (ConfigSerializable.class.isAssignableFrom(type)) {
+			this.deserializer = ReflectionUtil.getMethod(type, "deserialize", SerializedMap.class);
+			this.constructor = null;
+
+			Valid.checkNotNull(this.deserializer, "Expected " + type.getSimpleName() + " to have a public static deserialize(SerializedMap) method to read database rows");
+
+		} else {
+			this.deserializer = null;
+
+			try {
+				this.constructor = type.getDeclaredConstructor();
+				this.constructor.setAccessible(true);
+
+			} catch (final NoSuchMethodException ex) {
+				throw new FoException("Expected " + type.getSimpleName() + " to have a constructor with no arguments to read database rows, or implement ConfigSerializable");
+			}
+		}
+	}
+
+	/**
+	 * Read the current row of the result set into a new object
+	 *
+	 * @param resultSet
+	 * @return
+	 * @throws SQLException
+	 */
+	public T map(@NonNull final ResultSet resultSet) throws SQLException {
+		if (resultSet != this.resultSet)
+			this.matchColumns(resultSet);
+
+		if (this.deserializer != null)
+			return ReflectionUtil.invokeStatic(this.deserializer, toMap(resultSet, this.labels));
+
+		try {
+			final T instance = this.constructor.newInstance();
+
+			for (final ColumnSetter setter : this.setters)
+				setter.set(resultSet, instance);
+
+			return instance;
+
+		} catch (final ReflectiveOperationException ex) {
+			throw new FoException(ex, "Failed to read database row into " + this.type.getSimpleName());
+		}
+	}
+
+	/**
+	 * Read the current row into a map of column labels and values, skipping null values
+	 *
+	 * @param resultSet
+	 * @param labels column labels from {@link #getLabels(ResultSetMetaData)}
+	 * @return
+	 * @throws SQLException
+	 */
+	static SerializedMap toMap(final ResultSet resultSet, final String[] labels) throws SQLException {
+		final SerializedMap map = new SerializedMap();
+
+		for (int index = 0; index < labels.length; index++) {
+			final Object value = resultSet.getObject(index + 1);
+
+			if (value != null)
+				map.override(labels[index], value);
+		}
+
+		return map;
+	}
+
+	/**
+	 * Return column labels of the result set by column index - 1
+	 *
+	 * @param metaData
+	 * @return
+	 * @throws SQLException
+	 */
+	static String[] getLabels(final ResultSetMetaData metaData) throws SQLException {
+		final String[] labels = new String[metaData.getColumnCount()];
+
+		for (int column = 1; column <= labels.length; column++)
+			labels[column - 1] = metaData.getColumnLabel(column);
+
+		return labels;
+	}
+
+	/*
+	 * Match columns of the given result set to what we are creating
+	 */
+	private void matchColumns(final ResultSet resultSet) throws SQLException {
+		final String[] labels = getLabels(resultSet.getMetaData());
+
+		if (this.deserializer != null)
+			this.labels = labels;
+
+		else {
+			final Map<String, Field> fields = new HashMap<>();
+
+			for (Class<?> clazz = this.type; clazz != null && clazz != Object.class; clazz = clazz.getSuperclass())
+				for (final Field field : clazz.getDeclaredFields()) {
+					final int modifiers = field.getModifiers();
+
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers))
+						fields.putIfAbsent(field.getName().toLowerCase(), field);
+				}
+
+			final List<ColumnSetter> setters = new ArrayList<>();
+
+			for (int index = 0; index < labels.length; index++) {
+				final Field field = fields.get(labels[index].toLowerCase());
+
+				if (field != null) {
+					field.setAccessible(true);
+
+					setters.add(createSetter(field, index + 1));
+				}
+			}
+
+			this.setters = setters.toArray(new ColumnSetter[setters.size()]);
+		}
+
+		this.resultSet = resultSet;
+	}
+
+	/*
+	 * Create a setter reading the column in the type of the field
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static ColumnSetter createSetter(final Field field, final int column) {
+		final Class<?> type = field.getType();
+
+		if (type == int.class)
+			return (resultSet, instance) -> field.setInt(instance, resultSet.getInt(column));
+
+		if (type == long.class)
+			return (resultSet, instance) -> field.setLong(instance, resultSet.getLong(column));
+
+		if (type == double.class)
+			return (resultSet, instance) -> field.setDouble(instance, resultSet.getDouble(column));
+
+		if (type == float.class)
+			return (resultSet, instance) -> field.setFloat(instance, resultSet.getFloat(column));
+
+		if (type == boolean.class)
+			return (resultSet, instance) -> field.setBoolean(instance, resultSet.getBoolean(column));
+
+		if (type == short.class)
+			return (resultSet, instance) -> field.setShort(instance, resultSet.getShort(column));
+
+		if (type == byte.class)
+			return (resultSet, instance) -> field.setByte(instance, resultSet.getByte(column));
+
+		if (type == String.class)
+			return (resultSet, instance) -> field.set(instance, resultSet.getString(column));
+
+		if (type == UUID.class)
+			return (resultSet, instance) -> {
+				final String value = resultSet.getString(column);
+
+				field.set(instance, value == null || value.isEmpty() ? null : UUID.fromString(value));
+			};
+
+		if (type.isEnum())
+			return (resultSet, instance) -> {
+				final String value = resultSet.getString(column);
+
+				field.set(instance, value == null || value.isEmpty() ? null : ReflectionUtil.lookupEnumSilent((Class<Enum>) type, value));
+			};
+
+		return (resultSet, instance) -> {
+			final Object value = resultSet.getObject(column);
+
+			field.set(instance, value == null ? null : type.isInstance(value) ? value : SerializeUtil.deserialize(type, value));
+		};
+	}
+
+	/*
+	 * Sets a field from a column
+	 */
+	private interface ColumnSetter {
+		void set(ResultSet resultSet, Object instance) throws SQLException, IllegalAccessException;
+	}
+}
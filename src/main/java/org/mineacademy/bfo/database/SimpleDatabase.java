@@ -1,35 +1,68 @@
 package org.mineacademy.bfo.database;
 
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Array;
 import java.sql.Connection;
 import java.sql.Date;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.Ref;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.RowId;
 import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
 import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTransientConnectionException;
 import java.sql.Statement;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
 
 import org.mineacademy.bfo.Common;
 import org.mineacademy.bfo.FileUtil;
+import org.mineacademy.bfo.MathUtil;
 import org.mineacademy.bfo.ReflectionUtil;
 import org.mineacademy.bfo.SerializeUtil;
 import org.mineacademy.bfo.Valid;
 import org.mineacademy.bfo.collection.SerializedMap;
 import org.mineacademy.bfo.collection.StrictMap;
+import org.mineacademy.bfo.collection.expiringmap.NamedThreadFactory;
 import org.mineacademy.bfo.debug.Debugger;
 import org.mineacademy.bfo.exception.FoException;
 import org.mineacademy.bfo.model.ConfigSerializable;
@@ -43,6 +76,7 @@ import lombok.Getter;
 import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 import lombok.Setter;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
 
 /**
  * Represents a simple MySQL database
@@ -56,6 +90,31 @@ import lombok.Setter;
  */
 public class SimpleDatabase {
 
+	/**
+	 * The file in your plugin folder where slow queries are logged, see {@link #getSlowQueryThresholdMillis()}
+	 */
+	public static final String SLOW_QUERY_LOG = "slow-queries.log";
+
+	/**
+	 * The table storing which migrations were applied to which tables, see {@link #migrate(TableMigrator)}
+	 */
+	public static final String MIGRATIONS_TABLE = "foundation_migrations";
+
+	/**
+	 * How long we wait for a connection to a read replica before reading from elsewhere
+	 */
+	private static final long REPLICA_CONNECTION_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * The maximum amount of statement shapes we keep timings for, the rest is grouped together
+	 */
+	private static final int MAX_QUERY_SHAPES = 500;
+
+	/**
+	 * The maximum amount of SQL strings we remember the shape of, see {@link #shapes}
+	 */
+	private static final int MAX_CACHED_SHAPES = 2_000;
+
 	/**
 	 * Should we use the more modern HikariCP connector (if available)?
 	 */
@@ -64,11 +123,47 @@ public class SimpleDatabase {
 	private static boolean connectUsingHikari = true;
 
 	/**
-	 * The established connection, or null if none
+	 * The established connection, or null if none or if we are using HikariCP,
+	 * in which case each operation borrows its own connection from the pool
 	 */
-	@Getter(value = AccessLevel.PROTECTED)
 	private Connection connection;
 
+	/*
+	 * The connection borrowed from the pool for {@link #getConnection()} when using HikariCP
+	 */
+	private Connection borrowedConnection;
+
+	/**
+	 * Guards the single {@link #connection} when we are not using a pool
+	 */
+	private final Object connectionLock = new Object();
+
+	/**
+	 * Prepared statements cached on the single {@link #connection}, see {@link #getStatementCacheSize()}
+	 */
+	private final StatementCache statementCache = new StatementCache();
+
+	/**
+	 * Timings of statements by their shape, see {@link #getQueryTimings()}
+	 */
+	private final Map<String, QueryTimings> queryTimings = new ConcurrentHashMap<>();
+
+	/**
+	 * Shapes of SQL strings we ran, so that we do not normalize the same SQL for every statement
+	 */
+	private final Map<String, String> shapes = new ConcurrentHashMap<>();
+
+	/**
+	 * Runs asynchronous database tasks, see {@link #supplyAsync(Supplier)}
+	 */
+	private volatile ThreadPoolExecutor asyncExecutor;
+
+	/**
+	 * Guards creating and shutting down {@link #asyncExecutor}, separate from the
+	 * connection lock so that submitting tasks never waits for running queries
+	 */
+	private final Object asyncExecutorLock = new Object();
+
 	/**
 	 * Map of variables you can use with the {} syntax in SQL
 	 */
@@ -87,12 +182,58 @@ public class SimpleDatabase {
 	/*
 	 * Optional Hikari data source (you plugin needs to include com.zaxxer.HikariCP library in its plugin.yml (MC 1.16+ required)
 	 */
-	private Object hikariDataSource;
+	private DataSource hikariDataSource;
+
+	/*
+	 * The cached HikariDataSource#isClosed method
+	 */
+	private Method hikariIsClosed;
+
+	/*
+	 * The SQL dialect of the database we are connected to
+	 */
+	private SqlDialect dialect = SqlDialect.MYSQL;
+
+	/*
+	 * Was the single connection valid on the last background check, see {@link #getHealthCheckIntervalTicks()}
+	 */
+	private volatile boolean healthy = false;
+
+	/*
+	 * The task validating the single connection in the background
+	 */
+	private ScheduledTask healthCheckTask;
 
 	/*
-	 * Is this a SQLite connection?
+	 * Replicas reads are routed to, see {@link #addReadReplica(String, String, String)}
 	 */
-	private boolean isSQLite = false;
+	private volatile ReadReplica[] readReplicas = new ReadReplica[0];
+
+	/*
+	 * Counts reads to pick replicas in turns
+	 */
+	private final AtomicInteger replicaCounter = new AtomicInteger();
+
+	/*
+	 * How deep in {@link #readFromPrimary(Supplier)} calls the current thread is
+	 */
+	private final ThreadLocal<Integer> primaryReadDepth = ThreadLocal.withInitial(() -> 0);
+
+	/*
+	 * Time the current thread spent passing rows to consumers, which we leave out
+	 * of query timings, see {@link #measure(String, long, SqlCall)}
+	 */
+	private final ThreadLocal<long[]> consumerNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+	/*
+	 * Creates disconnected copies of results from pooled connections, see {@link #query(String)}
+	 */
+	private static RowSetFactory rowSetFactory;
+
+	/*
+	 * Databases connected and not closed yet, so that we can restart their tasks after reloading
+	 */
+	private static final Set<SimpleDatabase> activeDatabases = ConcurrentHashMap.newKeySet();
 
 	// --------------------------------------------------------------------
 	// Connecting
@@ -178,9 +319,13 @@ public class SimpleDatabase {
 
 		try {
 			this.connecting = true;
+			this.dialect = SqlDialect.fromUrl(url);
 
 			if (url.startsWith("jdbc:sqlite")) {
-				instance.loadLibrary("org.xerial", "sqlite-jdbc", "3.46.0.0");
+
+				// Skip downloading the driver if it is already on the classpath, such as in benchmarks
+				if (!ReflectionUtil.isClassAvailable("org.sqlite.JDBC"))
+					instance.loadLibrary("org.xerial", "sqlite-jdbc", "3.46.0.0");
 
 				Class.forName("org.sqlite.JDBC");
 
@@ -192,55 +337,20 @@ public class SimpleDatabase {
 					this.connection = DriverManager.getConnection("jdbc:sqlite:" + path);
 				} else
 					this.connection = DriverManager.getConnection(url);
-
-				this.isSQLite = true;
 			}
 
 			else if (connectUsingHikari) {
-				instance.loadLibrary("com.zaxxer", "HikariCP", Remain.getJavaVersion() >= 11 ? "5.1.0" : "4.0.3");
-
-				final Object hikariConfig = ReflectionUtil.instantiate("com.zaxxer.hikari.HikariConfig");
-
-				if (url.startsWith("jdbc:mysql://"))
-					try {
-						ReflectionUtil.invoke("setDriverClassName", hikariConfig, "com.mysql.cj.jdbc.Driver");
-
-					} catch (final Throwable t) {
-
-						// Fall back to legacy driver
-						ReflectionUtil.invoke("setDriverClassName", hikariConfig, "com.mysql.jdbc.Driver");
-					}
-				else if (url.startsWith("jdbc:mariadb://"))
-					ReflectionUtil.invoke("setDriverClassName", hikariConfig, "org.mariadb.jdbc.Driver");
-
-				else
-					throw new FoException("Unknown database driver, expected jdbc:mysql or jdbc:mariadb, got: " + url);
-
-				ReflectionUtil.invoke("setJdbcUrl", hikariConfig, url);
-
-				if (user != null)
-					ReflectionUtil.invoke("setUsername", hikariConfig, user);
-
-				if (password != null)
-					ReflectionUtil.invoke("setPassword", hikariConfig, password);
-
-				final Constructor<?> dataSourceConst = ReflectionUtil.getConstructor("com.zaxxer.hikari.HikariDataSource", hikariConfig.getClass());
-				final Object hikariSource = ReflectionUtil.instantiate(dataSourceConst, hikariConfig);
-
-				this.hikariDataSource = hikariSource;
-
-				final Method getConnection = hikariSource.getClass().getDeclaredMethod("getConnection");
-
-				try {
-					this.connection = ReflectionUtil.invoke(getConnection, hikariSource);
 
-				} catch (final Throwable t) {
-					Common.warning("Could not get HikariCP connection, please report this with the information below to github.com/kangarko/foundation");
-					Common.warning("Method: " + getConnection);
-					Common.warning("Arguments: " + Common.join(getConnection.getParameters()));
+				// Shut down the previous pool when reconnecting so that we do not leak its threads
+				if (this.hikariDataSource != null) {
+					this.closeBorrowedConnection();
 
-					t.printStackTrace();
+					ReflectionUtil.invoke("close", this.hikariDataSource);
 				}
+
+				this.hikariDataSource = this.createHikariDataSource(url, user, password, -1);
+				this.hikariIsClosed = ReflectionUtil.getMethod(this.hikariDataSource.getClass(), "isClosed");
+				this.connection = null;
 			}
 
 			/*
@@ -267,6 +377,11 @@ public class SimpleDatabase {
 			}
 
 			this.lastCredentials = new LastCredentials(url, user, password, table);
+			this.healthy = true;
+			this.startHealthCheck();
+
+			activeDatabases.add(this);
+
 			this.onConnected();
 
 		} catch (final Exception ex) {
@@ -294,586 +409,1950 @@ public class SimpleDatabase {
 		}
 	}
 
-	/**
-	 * Attempts to connect using last known credentials. Fails gracefully if those are not provided
-	 * i.e. connect function was never called
-	 */
-	protected final void connectUsingLastCredentials() {
-		if (this.lastCredentials != null)
-			this.connect(this.lastCredentials.url, this.lastCredentials.user, this.lastCredentials.password, this.lastCredentials.table);
-	}
-
-	/**
-	 * Called automatically after the first connection has been established
+	/*
+	 * Creates a HikariCP pool for the given MySQL or MariaDB url, failing fast
+	 * if the database is not reachable unless a connection timeout is given
 	 */
-	protected void onConnected() {
-	}
-
-	// --------------------------------------------------------------------
-	// Disconnecting
-	// --------------------------------------------------------------------
+	private DataSource createHikariDataSource(final String url, final String user, final String password, final long connectionTimeoutMillis) {
+		SimplePlugin.getInstance().loadLibrary("com.zaxxer", "HikariCP", Remain.getJavaVersion() >= 11 ? "5.1.0" : "4.0.3");
 
-	/**
-	 * Attempts to close the result set if not
-	 *
-	 * @param resultSet
-	 */
-	public final void close(final ResultSet resultSet) {
-		try {
-			if (!resultSet.isClosed())
-				resultSet.close();
+		final Object hikariConfig = ReflectionUtil.instantiate("com.zaxxer.hikari.HikariConfig");
 
-		} catch (final SQLException e) {
-			Common.error(e, "Error closing database result set!");
-		}
-	}
+		if (url.startsWith("jdbc:mysql://"))
+			try {
+				ReflectionUtil.invoke("setDriverClassName", hikariConfig, "com.mysql.cj.jdbc.Driver");
 
-	/**
-	 * Attempts to close the connection, if not null
-	 */
-	public final void close() {
-		try {
-			if (this.connection != null)
-				this.connection.close();
+			} catch (final Throwable t) {
 
-			if (this.hikariDataSource != null)
-				ReflectionUtil.invoke("close", this.hikariDataSource);
+				// Fall back to legacy driver
+				ReflectionUtil.invoke("setDriverClassName", hikariConfig, "com.mysql.jdbc.Driver");
+			}
+		else if (url.startsWith("jdbc:mariadb://"))
+			ReflectionUtil.invoke("setDriverClassName", hikariConfig, "org.mariadb.jdbc.Driver");
 
-		} catch (final SQLException e) {
-			Common.error(e, "Error closing database connection!");
-		}
-	}
+		else
+			throw new FoException("Unknown database driver, expected jdbc:mysql or jdbc:mariadb, got: " + url);
 
-	// --------------------------------------------------------------------
-	// Querying
-	// --------------------------------------------------------------------
+		ReflectionUtil.invoke("setJdbcUrl", hikariConfig, url);
 
-	/**
-	 * Creates a database table, to be used in onConnected
-	 *
-	 * @param creator
-	 */
-	protected final void createTable(final TableCreator creator) {
-		synchronized (this.connection) {
-			String columns = "";
+		if (user != null)
+			ReflectionUtil.invoke("setUsername", hikariConfig, user);
 
-			for (final TableRow column : creator.getColumns()) {
-				String dataType = column.getDataType().toLowerCase();
+		if (password != null)
+			ReflectionUtil.invoke("setPassword", hikariConfig, password);
 
-				if (this.isSQLite) {
-					if (dataType.equals("datetime") || dataType.equals("longtext"))
-						dataType = "text";
+		ReflectionUtil.invoke("setMaximumPoolSize", hikariConfig, this.getMaximumPoolSize());
 
-					else if (dataType.startsWith("varchar"))
-						dataType = "text";
+		// Start the pool even if the database is down and give up waiting for connections sooner
+		if (connectionTimeoutMillis > 0) {
+			ReflectionUtil.invoke("setConnectionTimeout", hikariConfig, connectionTimeoutMillis);
+			ReflectionUtil.invoke("setInitializationFailTimeout", hikariConfig, -1L);
+		}
 
-					else if (dataType.startsWith("bigint"))
-						dataType = "integer";
+		// Let the driver cache prepared statements per connection and use server-side prepared statements
+		if (url.startsWith("jdbc:mysql://")) {
+			ReflectionUtil.invoke("addDataSourceProperty", hikariConfig, "cachePrepStmts", "true");
+			ReflectionUtil.invoke("addDataSourceProperty", hikariConfig, "prepStmtCacheSize", String.valueOf(this.getStatementCacheSize()));
+			ReflectionUtil.invoke("addDataSourceProperty", hikariConfig, "prepStmtCacheSqlLimit", "2048");
+			ReflectionUtil.invoke("addDataSourceProperty", hikariConfig, "useServerPrepStmts", "true");
+			ReflectionUtil.invoke("addDataSourceProperty", hikariConfig, "rewriteBatchedStatements", "true");
+		}
 
-					else if (creator.getPrimaryColumn() != null && creator.getPrimaryColumn().equals(column.getName()))
-						dataType = "INTEGER PRIMARY KEY";
-				}
+		final Constructor<?> dataSourceConst = ReflectionUtil.getConstructor("com.zaxxer.hikari.HikariDataSource", hikariConfig.getClass());
 
-				columns += (columns.isEmpty() ? "" : ", ") + "`" + column.getName() + "` " + dataType;
+		return (DataSource) ReflectionUtil.instantiate(dataSourceConst, hikariConfig);
+	}
 
-				if (column.getAutoIncrement() != null && column.getAutoIncrement())
-					if (this.isSQLite)
-						columns += " AUTOINCREMENT";
+	/**
+	 * Attempts to connect using last known credentials. Fails gracefully if those are not provided
+	 * i.e. connect function was never called
+	 */
+	protected final void connectUsingLastCredentials() {
+		if (this.lastCredentials != null)
+			this.connect(this.lastCredentials.url, this.lastCredentials.user, this.lastCredentials.password, this.lastCredentials.table);
+	}
 
-					else
-						columns += " NOT NULL AUTO_INCREMENT";
+	/**
+	 * Return the established connection.
+	 * <p>
+	 * When using HikariCP, our queries borrow their own connections from the pool. For code
+	 * using the connection directly, we borrow one connection from the pool on first call and
+	 * return it until {@link #close()}, do not close it yourself. Prefer the query methods
+	 * of this class so that the pool is shared fairly.
+	 *
+	 * @return the connection, or null if not connected
+	 */
+	protected Connection getConnection() {
+		if (this.hikariDataSource == null)
+			return this.connection;
 
-				else if (column.getNotNull() != null && column.getNotNull())
-					columns += " NOT NULL";
+		synchronized (this.connectionLock) {
+			try {
+				if (this.borrowedConnection == null || this.borrowedConnection.isClosed())
+					this.borrowedConnection = this.hikariDataSource.getConnection();
 
-				if (column.getDefaultValue() != null)
-					columns += " DEFAULT " + column.getDefaultValue();
+			} catch (final SQLException ex) {
+				Common.throwError(ex, "Unable to borrow a connection from the database pool!");
 			}
 
-			if (creator.getPrimaryColumn() != null && !this.isSQLite)
-				columns += ", PRIMARY KEY (`" + creator.getPrimaryColumn() + "`)";
+			return this.borrowedConnection;
+		}
+	}
 
-			try {
-				this.update("CREATE TABLE IF NOT EXISTS `" + creator.getName() + "` (" + columns + ") " + (this.isSQLite ? "" : "DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_520_ci") + ";");
+	/*
+	 * Return the connection borrowed by {@link #getConnection()} to the pool
+	 */
+	private void closeBorrowedConnection() {
+		synchronized (this.connectionLock) {
+			if (this.borrowedConnection != null)
+				try {
+					this.borrowedConnection.close();
 
-			} catch (final Throwable t) {
-				if (t.toString().contains("Unknown collation")) {
-					Common.log("You need to update your database driver to support utf8mb4_unicode_520_ci collation. We switched to support unicode using 4 bits length because the previous system only supported 3 bits.");
-					Common.log("Some characters such as smiley or Chinese are stored in 4 bits so they would crash the 3-bit database leading to more problems. Most hosting providers have now widely adopted the utf8mb4_unicode_520_ci encoding you seem lacking. Disable database connection or update your driver to fix this.");
+				} catch (final SQLException ex) {
+					// Already broken
 				}
 
-				else
-					throw t;
-			}
+			this.borrowedConnection = null;
 		}
 	}
 
 	/**
-	 * Insert the given column-values pairs into the {@link #getTable()}
-	 *
-	 * @param columsAndValues
+	 * Called automatically after the first connection has been established
 	 */
-	protected final void insert(@NonNull final SerializedMap columsAndValues) {
-		this.insert("{table}", columsAndValues);
+	protected void onConnected() {
 	}
 
 	/**
-	 * Insert the given serializable object as its column-value pairs into the given table
+	 * The maximum amount of connections HikariCP keeps open for this database.
+	 * Each query borrows one connection for its duration so that independent
+	 * queries run in parallel instead of waiting for each other.
+	 * <p>
+	 * Only used when connecting using HikariCP.
+	 * <p>
+	 * Default: 10
 	 *
-	 * @param <T>
-	 * @param table
-	 * @param serializableObject
+	 * @return
 	 */
-	protected final <T extends ConfigSerializable> void insert(final String table, @NonNull final T serializableObject) {
-		this.insert(table, serializableObject.serialize());
+	protected int getMaximumPoolSize() {
+		return 10;
 	}
 
 	/**
-	 * Insert the given column-values pairs into the given table
+	 * How many prepared statements we keep open per connection so that
+	 * the database does not need to parse the same query again.
+	 * <p>
+	 * When using HikariCP this is passed to the MySQL driver's own cache,
+	 * otherwise we cache statements on the single connection ourselves.
+	 * <p>
+	 * Default: 64
 	 *
-	 * @param table
-	 * @param columnsAndValues
+	 * @return
 	 */
-	protected final void insert(final String table, @NonNull final SerializedMap columnsAndValues) {
-		synchronized (this.connection) {
-			final String columns = Common.join(columnsAndValues.keySet());
-			final String values = Common.join(columnsAndValues.values(), ", ", value -> value == null || value.equals("NULL") ? "NULL" : (value instanceof Number ? String.valueOf(value) : "'" + value + "'"));
-			final String duplicateUpdate = Common.join(columnsAndValues.entrySet(), ", ", entry -> entry.getKey() + "=VALUES(" + entry.getKey() + ")");
-
-			this.update("INSERT INTO " + this.replaceVariables(table) + " (" + columns + ") VALUES (" + values + ")" + (this.isSQLite ? "" : " ON DUPLICATE KEY UPDATE " + duplicateUpdate + ";"));
-		}
+	protected int getStatementCacheSize() {
+		return 64;
 	}
 
 	/**
-	 * Insert the batch map into {@link #getTable()}
+	 * Statements taking this many milliseconds or more, including the time waited
+	 * for a connection, are logged to the console and to {@value #SLOW_QUERY_LOG}
+	 * in your plugin folder. Set to -1 to disable.
+	 * <p>
+	 * Default: 500
 	 *
-	 * @param maps
+	 * @return
 	 */
-	protected final void insertBatch(@NonNull final List<SerializedMap> maps) {
-		this.insertBatch("{table}", maps);
+	protected int getSlowQueryThresholdMillis() {
+		return 500;
 	}
 
 	/**
-	 * Insert the batch map into the database
+	 * How many SQLs {@link #batchUpdate(List)} or rows {@link #insertBatch(List)} sends and commits at once.
+	 * Smaller chunks keep transactions short and lose less work on failure,
+	 * larger chunks need fewer round trips.
+	 * <p>
+	 * Default: 1000
 	 *
-	 * @param table
-	 * @param maps
+	 * @return
 	 */
-	protected final void insertBatch(final String table, @NonNull final List<SerializedMap> maps) {
-		synchronized (this.connection) {
-			final List<String> sqls = new ArrayList<>();
+	protected int getBatchChunkSize() {
+		return 1000;
+	}
 
-			for (final SerializedMap map : maps)
-				try {
-					final String columns = Common.join(map.keySet());
-					final String values = Common.join(map.values(), ", ", this::parseValue);
-					final String duplicateUpdate = Common.join(map.entrySet(), ", ", entry -> entry.getKey() + "=VALUES(" + entry.getKey() + ")");
+	/**
+	 * How often we ping the single connection in the background to see if it is still valid.
+	 * Queries then only look at the result of the last ping instead of pinging the database
+	 * each time. Set to 0 or below to ping before every query instead.
+	 * <p>
+	 * Not used when connecting using HikariCP since the pool validates connections itself.
+	 * <p>
+	 * Default: 600 ticks (30 seconds)
+	 *
+	 * @return
+	 */
+	protected int getHealthCheckIntervalTicks() {
+		return 20 * 30;
+	}
 
-					final String sql = "INSERT INTO " + table + " (" + columns + ") VALUES (" + values + ")" + (this.isSQLite ? "" : " ON DUPLICATE KEY UPDATE " + duplicateUpdate + ";");
-					Debugger.debug("mysql", "Inserting batch SQL: " + sql);
+	/*
+	 * Start pinging the single connection in the background, cancelling the previous task
+	 */
+	private void startHealthCheck() {
+		if (this.healthCheckTask != null) {
+			this.healthCheckTask.cancel();
 
-					sqls.add(sql);
+			this.healthCheckTask = null;
+		}
 
-				} catch (final Throwable t) {
-					Common.error(t, "Error inserting batch map: " + map);
-				}
+		final int intervalTicks = this.getHealthCheckIntervalTicks();
 
-			this.batchUpdate(sqls);
-		}
+		if (this.connection != null && intervalTicks > 0)
+			this.healthCheckTask = Common.runTimerAsync(intervalTicks, intervalTicks, () -> {
+				if (this.connection != null && !this.connecting)
+					synchronized (this.connectionLock) {
+						this.validateConnection();
+					}
+			});
 	}
 
-	/*
-	 * A helper method to insert compatible value to db
+	/**
+	 * Restart background tasks of all connected databases. Reloading the plugin cancels
+	 * all its tasks, so this is called automatically after reloading.
 	 */
-	private final String parseValue(final Object value) {
-		final Object serialized = SerializeUtil.serialize(value);
+	public static void restartAllTasks() {
+		for (final SimpleDatabase database : activeDatabases)
+			database.restartTasks();
+	}
 
-		return value == null || value.equals("NULL") ? "NULL" : "'" + serialized.toString() + "'";
+	/**
+	 * Restart background tasks after they were cancelled by reloading the plugin,
+	 * see {@link #restartAllTasks()}. Call super when overriding this.
+	 */
+	protected void restartTasks() {
+		this.startHealthCheck();
 	}
 
+	// --------------------------------------------------------------------
+	// Read replicas
+	// --------------------------------------------------------------------
+
 	/**
-	 * Attempts to execute a new update query
+	 * Adds a read replica of the database we are connected to. Selects, counts and queries
+	 * are then routed to replicas picked per {@link #getReplicaSelection()}, while writes
+	 * always go to the primary database.
 	 * <p>
-	 * Make sure you called connect() first otherwise an error will be thrown
+	 * A replica failing to connect is skipped for {@link #getReplicaEjectSeconds()}
+	 * and reads fall back to the primary database when no replica is available.
+	 * <p>
+	 * Replicas may lag behind, use {@link #readFromPrimary(Supplier)} to read what you just wrote.
+	 * <p>
+	 * Requires connecting to MySQL or MariaDB using HikariCP, call after connect().
 	 *
-	 * @param sql
+	 * @param url
+	 * @param user
+	 * @param password
 	 */
-	protected final void update(String sql) {
-		synchronized (this.connection) {
-			this.checkEstablished();
+	public final void addReadReplica(@NonNull final String url, final String user, final String password) {
+		Valid.checkBoolean(this.hikariDataSource != null, "Read replicas require connecting to MySQL or MariaDB using HikariCP first, cannot add " + url);
 
-			if (!this.isConnected())
-				this.connectUsingLastCredentials();
+		final ReadReplica replica = new ReadReplica(url, this.createHikariDataSource(url, user, password, REPLICA_CONNECTION_TIMEOUT_MILLIS));
 
-			sql = this.replaceVariables(sql);
-			Valid.checkBoolean(!sql.contains("{table}"), "Table not set! Either use connect() method that specifies it or call addVariable(table, 'yourtablename') in your constructor!");
+		synchronized (this.connectionLock) {
+			final ReadReplica[] replicas = Arrays.copyOf(this.readReplicas, this.readReplicas.length + 1);
+			replicas[replicas.length - 1] = replica;
 
-			Debugger.debug("mysql", "Updating database with: " + sql);
-
-			try (Statement statement = this.connection.createStatement()) {
-				statement.executeUpdate(sql);
-
-			} catch (final SQLException e) {
-				this.handleError(e, "Error on updating database with: " + sql);
-			}
+			this.readReplicas = replicas;
 		}
+
+		Debugger.debug("mysql", "Added read replica " + url);
 	}
 
 	/**
-	 * Lists all rows in the given table
+	 * Runs the given code reading from the primary database instead of read replicas,
+	 * use this to read rows you just wrote since replicas may not have them yet.
+	 * <p>
+	 * Only affects the current thread and asynchronous calls made from it, such as
+	 * {@link #queryAsync(String, Object...)}, which also read from the primary database.
 	 *
-	 * @param table
-	 * @param consumer
+	 * @param <T>
+	 * @param reads
+	 * @return
 	 */
-	protected final void selectAll(final String table, final ResultReader consumer) {
-		this.select(table, (String) null, consumer);
+	protected final <T> T readFromPrimary(@NonNull final Supplier<T> reads) {
+		final int depth = this.primaryReadDepth.get();
+
+		this.primaryReadDepth.set(depth + 1);
+
+		try {
+			return reads.get();
+
+		} finally {
+			if (depth == 0)
+				this.primaryReadDepth.remove();
+			else
+				this.primaryReadDepth.set(depth);
+		}
 	}
 
 	/**
-	 * Lists all rows in the given table matching the given where clauses. Example use:
+	 * See {@link #readFromPrimary(Supplier)}
 	 *
-	 * select(table, "PlayerUid = " + player.getUniqueId(), resultSet);
+	 * @param reads
+	 */
+	protected final void readFromPrimary(@NonNull final Runnable reads) {
+		this.readFromPrimary(() -> {
+			reads.run();
+
+			return null;
+		});
+	}
+
+	/**
+	 * How we pick the read replica for each read, see {@link #addReadReplica(String, String, String)}
+	 * <p>
+	 * Default: {@link ReplicaSelection#ROUND_ROBIN}
 	 *
-	 * Do not forget to close the connection when done in your consumer.
+	 * @return
+	 */
+	protected ReplicaSelection getReplicaSelection() {
+		return ReplicaSelection.ROUND_ROBIN;
+	}
+
+	/**
+	 * How long we skip a read replica after it failed to connect
+	 * before trying it again
+	 * <p>
+	 * Default: 30
 	 *
-	 * @param table
-	 * @param where
-	 * @param consumer
+	 * @return
 	 */
-	protected final void select(final String table, @Nullable final String where, final ResultReader consumer) {
-		synchronized (this.connection) {
-			if (!this.isLoaded())
-				return;
+	protected int getReplicaEjectSeconds() {
+		return 30;
+	}
 
-			final String tableName = this.replaceVariables(table);
+	/*
+	 * Return an available read replica to read from, or null to read from the primary database
+	 */
+	private ReadReplica pickReplica() {
+		final ReadReplica[] replicas = this.readReplicas;
 
-			try (ResultSet resultSet = this.query("SELECT * FROM " + table + (where == null ? "" : " WHERE " + where))) {
-				while (resultSet.next())
-					try {
-						consumer.accept(new SimpleResultSet(tableName, resultSet));
+		if (replicas.length == 0 || this.primaryReadDepth.get() > 0)
+			return null;
 
-					} catch (final InvalidRowException ex) {
-						// Pardoned
+		if (this.getReplicaSelection() == ReplicaSelection.LEAST_LATENCY) {
+			ReadReplica fastest = null;
+			boolean measured = true;
 
-					} catch (final Throwable t) {
-						Common.log("Error reading a row from table " + tableName + " where " + (where == null ? "all" : where) + ", aborting...");
+			for (final ReadReplica replica : replicas) {
+				if (!replica.isAvailable())
+					continue;
 
-						t.printStackTrace();
-						break;
-					}
+				if (replica.getAverageNanos() == 0) {
+					measured = false;
 
-			} catch (final Throwable t) {
-				Common.error(t, "Error selecting rows from table " + table + " where " + (where == null ? "all" : where));
+					break;
+				}
+
+				if (fastest == null || replica.getAverageNanos() < fastest.getAverageNanos())
+					fastest = replica;
 			}
+
+			// Until every replica has been measured we use them in turns, otherwise
+			// all reads would go to the one we know nothing about yet
+			if (measured)
+				return fastest;
+		}
+
+		final int start = Math.floorMod(this.replicaCounter.getAndIncrement(), replicas.length);
+
+		for (int i = 0; i < replicas.length; i++) {
+			final ReadReplica replica = replicas[(start + i) % replicas.length];
+
+			if (replica.isAvailable())
+				return replica;
 		}
+
+		return null;
+	}
+
+	/*
+	 * Stops reading from the replica for a while after it failed
+	 */
+	private void ejectReplica(final ReadReplica replica, final SQLException ex) {
+		final int ejectSeconds = Math.max(1, this.getReplicaEjectSeconds());
+
+		if (replica.eject(ejectSeconds * 1000L))
+			Common.warning("Read replica " + replica.getUrl() + " is unavailable, reading from other databases for " + ejectSeconds + " seconds. Error: " + ex.getMessage());
 	}
 
+	// --------------------------------------------------------------------
+	// Disconnecting
+	// --------------------------------------------------------------------
+
 	/**
-	 * Lists all rows in the given table matching the given where clauses. Example use:
-	 *
-	 * Map<String, Object> conditions = new HashMap<>();
+	 * Attempts to close the result set if not
 	 *
-	 * conditions.put("name", "John");
-	 * conditions.put("age", 30);
-	 * conditions.put("city", "%New York%");
+	 * @param resultSet
+	 */
+	public final void close(final ResultSet resultSet) {
+		try {
+			if (!resultSet.isClosed())
+				resultSet.close();
+
+		} catch (final SQLException e) {
+			Common.error(e, "Error closing database result set!");
+		}
+	}
+
+	/**
+	 * Attempts to close the connection, if not null
+	 */
+	public final void close() {
+		activeDatabases.remove(this);
+
+		this.onClose();
+
+		if (this.healthCheckTask != null) {
+			this.healthCheckTask.cancel();
+
+			this.healthCheckTask = null;
+		}
+
+		synchronized (this.asyncExecutorLock) {
+			if (this.asyncExecutor != null) {
+				this.asyncExecutor.shutdown();
+
+				this.asyncExecutor = null;
+			}
+		}
+
+		try {
+			synchronized (this.connectionLock) {
+				this.statementCache.clear();
+			}
+
+			if (this.connection != null)
+				this.connection.close();
+
+			this.closeBorrowedConnection();
+
+			if (this.hikariDataSource != null)
+				ReflectionUtil.invoke("close", this.hikariDataSource);
+
+			for (final ReadReplica replica : this.readReplicas)
+				replica.close();
+
+			this.readReplicas = new ReadReplica[0];
+
+		} catch (final SQLException e) {
+			Common.error(e, "Error closing database connection!");
+		}
+	}
+
+	/**
+	 * Called automatically before the connection is closed in {@link #close()}
+	 * while it can still be used
+	 */
+	protected void onClose() {
+	}
+
+	// --------------------------------------------------------------------
+	// Querying
+	// --------------------------------------------------------------------
+
+	/**
+	 * Creates a database table, to be used in onConnected
 	 *
-	 * Do not forget to close the connection when done in your consumer.
+	 * @param creator
+	 */
+	protected final void createTable(final TableCreator creator) {
+		String columns = "";
+
+		for (final TableRow column : creator.getColumns()) {
+			final String dataType = this.dialect.translateType(column.getDataType(), column.getName().equals(creator.getPrimaryColumn()));
+
+			columns += (columns.isEmpty() ? "" : ", ") + "`" + column.getName() + "` " + dataType;
+
+			if (column.getAutoIncrement() != null && column.getAutoIncrement())
+				columns += " " + this.dialect.getAutoIncrement();
+
+			else if (column.getNotNull() != null && column.getNotNull())
+				columns += " NOT NULL";
+
+			if (column.getDefaultValue() != null)
+				columns += " DEFAULT " + column.getDefaultValue();
+		}
+
+		if (creator.getPrimaryColumn() != null && !this.isSQLite())
+			columns += ", PRIMARY KEY (`" + creator.getPrimaryColumn() + "`)";
+
+		try {
+			this.update("CREATE TABLE IF NOT EXISTS `" + creator.getName() + "` (" + columns + ") " + this.dialect.getTableOptions() + ";");
+
+		} catch (final Throwable t) {
+			if (t.toString().contains("Unknown collation")) {
+				Common.log("You need to update your database driver to support utf8mb4_unicode_520_ci collation. We switched to support unicode using 4 bits length because the previous system only supported 3 bits.");
+				Common.log("Some characters such as smiley or Chinese are stored in 4 bits so they would crash the 3-bit database leading to more problems. Most hosting providers have now widely adopted the utf8mb4_unicode_520_ci encoding you seem lacking. Disable database connection or update your driver to fix this.");
+			}
+
+			else
+				throw t;
+		}
+	}
+
+	/**
+	 * Runs migrations of the given migrator that have not been applied to its table yet,
+	 * in order of their versions. Applied versions are stored in the {@value #MIGRATIONS_TABLE}
+	 * table so that each migration only runs once, and adding columns or indexes that already
+	 * exist is skipped.
+	 * <p>
+	 * If a migration fails, we stop and retry the remaining migrations next time.
 	 *
-	 * @param table
-	 * @param where
-	 * @param consumer
+	 * @param migrator
 	 */
-	protected final void select(final String table, @Nullable final Map<String, Object> where, final ResultReader consumer) {
-		synchronized (this.connection) {
-			if (!this.isLoaded())
-				return;
+	protected final void migrate(@NonNull final TableMigrator migrator) {
+		this.checkEstablished();
 
-			final String tableName = this.replaceVariables(table);
+		final String table = this.replaceVariables(migrator.getTable());
+		final Set<Integer> appliedVersions = new HashSet<>();
 
-			try (ResultSet resultSet = this.query("SELECT * FROM " + table + " " + buildWhere(where))) {
-				while (resultSet.next())
-					try {
-						consumer.accept(new SimpleResultSet(tableName, resultSet));
+		this.update("CREATE TABLE IF NOT EXISTS " + MIGRATIONS_TABLE + " (TableName varchar(128) NOT NULL, Version int NOT NULL, Applied bigint, PRIMARY KEY (TableName, Version))");
+		this.readFromPrimary(() -> this.select(MIGRATIONS_TABLE, Arrays.asList("Version"), "TableName = ?", set -> appliedVersions.add(set.getInt(1)), table));
 
-					} catch (final InvalidRowException ex) {
-						// Pardoned
+		for (final Entry<Integer, Migration> entry : migrator.getMigrations().entrySet()) {
+			final int version = entry.getKey();
+			final Migration migration = entry.getValue();
 
-					} catch (final Throwable t) {
-						Common.log("Error reading a row from table " + tableName + " where " + (where == null ? "all" : where) + ", aborting...");
+			if (appliedVersions.contains(version))
+				continue;
 
-						t.printStackTrace();
-						break;
-					}
+			try {
+				migration.getAction().apply(this, table);
+
+				this.update("INSERT INTO " + MIGRATIONS_TABLE + " (TableName, Version, Applied) VALUES (?, ?, ?)", table, version, System.currentTimeMillis());
+				Debugger.debug("mysql", "Applied migration " + version + " to " + table + ": " + migration.getDescription());
 
 			} catch (final Throwable t) {
-				Common.error(t, "Error selecting rows from table " + table + " where " + (where == null ? "all" : where));
+				Common.error(t,
+						"Failed to apply migration " + version + " to table " + table + ": " + migration.getDescription(),
+						"Remaining migrations will be retried next time.",
+						"Error: %error");
+
+				break;
 			}
 		}
 	}
 
-	private static String buildWhere(Map<String, Object> conditions) {
-		if (conditions == null || conditions.isEmpty())
-			return "";
+	/**
+	 * Return true if the given table has the given column
+	 *
+	 * @param table
+	 * @param column
+	 * @return
+	 */
+	protected final boolean hasColumn(final String table, final String column) {
+		final String sql = "SELECT * FROM " + this.replaceVariables(table) + " WHERE 1 = 0";
 
-		final List<String> clauses = new ArrayList<>();
+		try {
+			return this.execute(sql, connection -> {
+				try (Statement statement = connection.createStatement(); ResultSet resultSet = statement.executeQuery(sql)) {
+					final ResultSetMetaData metaData = resultSet.getMetaData();
 
-		conditions.forEach((key, value) -> {
-			String clause;
+					for (int index = 1; index <= metaData.getColumnCount(); index++)
+						if (column.equalsIgnoreCase(metaData.getColumnName(index)))
+							return true;
 
-			if (value instanceof String)
-				clause = String.format("%s = '%s'", key, value);
+					return false;
+				}
+			});
 
-			else
-				clause = String.format("%s = %s", key, value);
+		} catch (final SQLException ex) {
+			if (!isMissingTable(ex))
+				this.handleError(ex, "Error reading columns of " + table);
 
-			clauses.add(clause);
-		});
+			return false;
+		}
+	}
 
-		return "WHERE " + String.join(" AND ", clauses);
+	/**
+	 * Return true if the given table has an index of the given name
+	 *
+	 * @param table
+	 * @param index
+	 * @return
+	 */
+	protected final boolean hasIndex(final String table, final String index) {
+		try {
+			return this.executePrepared(this.dialect.getIndexExistsQuery(), new Object[] { this.replaceVariables(table), this.replaceVariables(index) }, statement -> {
+				try (ResultSet resultSet = statement.executeQuery()) {
+					return resultSet.next() && resultSet.getInt(1) > 0;
+				}
+			});
+
+		} catch (final SQLException ex) {
+			this.handleError(ex, "Error reading indexes of " + table);
+
+			return false;
+		}
 	}
 
 	/**
-	 * Returns the amount of rows from the given table per the key-value conditions.
+	 * Insert the given column-values pairs into the {@link #getTable()}
 	 *
-	 * Example conditions: count("MyTable", "Player", "kangarko, "Status", "PENDING")
-	 * This example will return all rows where column Player is equal to kangarko and Status column equals PENDING.
+	 * @param columsAndValues
+	 */
+	protected final void insert(@NonNull final SerializedMap columsAndValues) {
+		this.insert("{table}", columsAndValues);
+	}
+
+	/**
+	 * Insert the given serializable object as its column-value pairs into the given table
 	 *
+	 * @param <T>
 	 * @param table
-	 * @param array
-	 * @return
+	 * @param serializableObject
 	 */
-	protected final int count(final String table, final Object... array) {
-		return this.count(table, SerializedMap.ofArray(array));
+	protected final <T extends ConfigSerializable> void insert(final String table, @NonNull final T serializableObject) {
+		this.insert(table, serializableObject.serialize());
 	}
 
 	/**
-	 * Returns the amount of rows from the given table per the conditions,
+	 * Insert the given column-values pairs into the given table
 	 *
-	 * Example conditions: SerializedMap.ofArray("Player", "kangarko, "Status", "PENDING")
-	 * This example will return all rows where column Player is equal to kangarko and Status column equals PENDING.
+	 * @param table
+	 * @param columnsAndValues
+	 */
+	protected final void insert(final String table, @NonNull final SerializedMap columnsAndValues) {
+		this.update(this.buildInsert(table, columnsAndValues.keySet()), columnsAndValues.values().toArray());
+	}
+
+	/**
+	 * Insert the batch map into {@link #getTable()}
+	 *
+	 * @param maps
+	 */
+	protected final void insertBatch(@NonNull final List<SerializedMap> maps) {
+		this.insertBatch("{table}", maps);
+	}
+
+	/**
+	 * Insert the batch map into the database
+	 * <p>
+	 * Rows are inserted in chunks of {@link #getBatchChunkSize()}, each in its own transaction.
+	 * A chunk that fails is rolled back and logged, and we continue with the next one.
 	 *
 	 * @param table
-	 * @param conditions
-	 * @return
+	 * @param maps
 	 */
-	protected final int count(final String table, final SerializedMap conditions) {
-		synchronized (this.connection) {
-			// Convert conditions into SQL syntax
-			final Set<String> conditionsList = Common.convertSet(conditions.entrySet(), entry -> entry.getKey() + " = '" + SerializeUtil.serialize(entry.getValue()) + "'");
+	protected final void insertBatch(final String table, @NonNull final List<SerializedMap> maps) {
+		final int total = maps.size();
+		final int chunkSize = Math.max(1, this.getBatchChunkSize());
+
+		for (int from = 0; from < total; from += chunkSize) {
+			final List<SerializedMap> chunk = maps.subList(from, Math.min(from + chunkSize, total));
+
+			try {
+				this.insertChunk(table, chunk);
+
+			} catch (final Throwable t) {
+				Common.error(t, "Error inserting a batch chunk of " + chunk.size() + " rows into " + table + ", rows " + from + "-" + (from + chunk.size() - 1) + " of " + total + " were not inserted.");
+			}
+		}
+	}
 
-			// Run the query
-			final String sql = "SELECT * FROM " + table + (conditionsList.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditionsList)) + ";";
+	/*
+	 * Inserts the rows in one transaction, rolling it back on failure
+	 */
+	private void insertChunk(final String table, final List<SerializedMap> maps) throws SQLException {
 
-			try (ResultSet resultSet = this.query(sql)) {
-				int count = 0;
+		// Group rows by their columns so that each group shares one prepared statement
+		final Map<List<String>, List<SerializedMap>> rowsByColumns = new LinkedHashMap<>();
 
-				while (resultSet.next())
-					count++;
+		for (final SerializedMap map : maps)
+			rowsByColumns.computeIfAbsent(new ArrayList<>(map.keySet()), columns -> new ArrayList<>()).add(map);
 
-				return count;
+		this.execute("[batch] " + this.buildInsert(table, rowsByColumns.keySet().iterator().next()), connection -> {
+			connection.setAutoCommit(false);
 
-			} catch (final SQLException ex) {
-				Common.throwError(ex,
-						"Unable to count rows!",
-						"Table: " + this.replaceVariables(table),
-						"Conditions: " + conditions,
-						"Query: " + sql);
+			try {
+				for (final Entry<List<String>, List<SerializedMap>> entry : rowsByColumns.entrySet()) {
+					final String sql = this.replaceVariables(this.buildInsert(table, entry.getKey()));
+					Debugger.debug("mysql", "Inserting batch of " + entry.getValue().size() + " rows with: " + sql);
+
+					try (PreparedStatement statement = connection.prepareStatement(sql)) {
+						for (final SerializedMap map : entry.getValue()) {
+							int index = 1;
+
+							for (final Object value : map.values())
+								bindValue(statement, index++, value);
+
+							statement.addBatch();
+						}
+
+						statement.executeBatch();
+					}
+				}
+
+				connection.commit();
+
+			} catch (final SQLException | RuntimeException ex) {
+				rollback(connection, ex);
+				restoreAutoCommit(connection, ex);
+
+				throw ex;
 			}
 
-			return 0;
-		}
+			restoreAutoCommit(connection, null);
+
+			return null;
+		});
 	}
 
-	/**
-	 * Attempts to execute a new query
-	 * <p>
-	 * Make sure you called connect() first otherwise an error will be thrown
+	/*
+	 * Builds an insert query for the given columns with ? placeholders for values,
+	 * updating the row if it already exists
+	 */
+	private String buildInsert(final String table, final Collection<String> columns) {
+		return this.dialect.buildUpsert(table, new ArrayList<>(columns), 1);
+	}
+
+	/*
+	 * Binds the value to the statement, numbers are bound as they are
+	 * and everything else is serialized to a string
+	 */
+	private static void bindValue(final PreparedStatement statement, final int index, final Object value) throws SQLException {
+		if (value == null || value.equals("NULL"))
+			statement.setNull(index, Types.NULL);
+
+		else if (value instanceof Number)
+			statement.setObject(index, value);
+
+		else
+			statement.setString(index, SerializeUtil.serialize(value).toString());
+	}
+
+	/*
+	 * Rolls back the open transaction, a failure to do so is attached
+	 * to the error that caused the rollback instead of replacing it
+	 */
+	private static void rollback(final Connection connection, final Exception cause) {
+		try {
+			connection.rollback();
+
+		} catch (final SQLException ex) {
+			cause.addSuppressed(ex);
+		}
+	}
+
+	/*
+	 * Turns autocommit back on after a batch, if we are already failing
+	 * with the given cause, a failure here is attached to it instead
+	 */
+	private static void restoreAutoCommit(final Connection connection, @Nullable final Exception cause) throws SQLException {
+		try {
+			connection.setAutoCommit(true);
+
+		} catch (final SQLException ex) {
+			if (cause == null)
+				throw ex;
+
+			cause.addSuppressed(ex);
+		}
+	}
+
+	/**
+	 * Attempts to execute a new update query
+	 * <p>
+	 * Make sure you called connect() first otherwise an error will be thrown
+	 *
+	 * @param sql
+	 */
+	protected final void update(String sql) {
+		this.checkEstablished();
+
+		sql = this.replaceVariables(sql);
+		Valid.checkBoolean(!sql.contains("{table}"), "Table not set! Either use connect() method that specifies it or call addVariable(table, 'yourtablename') in your constructor!");
+
+		Debugger.debug("mysql", "Updating database with: " + sql);
+
+		final String finalSql = sql;
+
+		try {
+			this.execute(finalSql, connection -> {
+				try (Statement statement = connection.createStatement()) {
+					statement.executeUpdate(finalSql);
+				}
+
+				return null;
+			});
+
+		} catch (final SQLException e) {
+			this.handleError(e, "Error on updating database with: " + sql);
+		}
+	}
+
+	/**
+	 * Attempts to execute a new update query with ? placeholders
+	 * replaced by the given values in order. Values are sent separately
+	 * from the query so they do not need escaping.
+	 * <p>
+	 * Make sure you called connect() first otherwise an error will be thrown
+	 *
+	 * @param sql
+	 * @param values
+	 */
+	protected final void update(String sql, final Object... values) {
+		this.checkEstablished();
+
+		sql = this.replaceVariables(sql);
+		Valid.checkBoolean(!sql.contains("{table}"), "Table not set! Either use connect() method that specifies it or call addVariable(table, 'yourtablename') in your constructor!");
+
+		Debugger.debug("mysql", "Updating database with: " + sql + " " + Arrays.toString(values));
+
+		try {
+			this.executePrepared(sql, values, PreparedStatement::executeUpdate);
+
+		} catch (final SQLException e) {
+			this.handleError(e, "Error on updating database with: " + sql);
+		}
+	}
+
+	/**
+	 * Lists all rows in the given table
+	 *
+	 * @param table
+	 * @param consumer
+	 */
+	protected final void selectAll(final String table, final ResultReader consumer) {
+		this.select(table, (String) null, consumer);
+	}
+
+	/**
+	 * Lists all rows in the given table matching the given where clauses. Example use:
+	 *
+	 * select(table, "PlayerUid = " + player.getUniqueId(), resultSet);
+	 *
+	 * Do not forget to close the connection when done in your consumer.
+	 *
+	 * @param table
+	 * @param where
+	 * @param consumer
+	 */
+	protected final void select(final String table, @Nullable final String where, final ResultReader consumer) {
+		this.select(table, where, consumer, new Object[0]);
+	}
+
+	/**
+	 * Lists all rows in the given table matching the given where clause
+	 * with ? placeholders replaced by the given values in order. Example use:
+	 *
+	 * select(table, "PlayerUid = ? AND Status = ?", resultSet, player.getUniqueId(), "PENDING");
+	 *
+	 * @param table
+	 * @param where
+	 * @param consumer
+	 * @param values
+	 */
+	protected final void select(final String table, @Nullable final String where, final ResultReader consumer, final Object... values) {
+		this.select(table, null, where, consumer, values);
+	}
+
+	/**
+	 * Lists the given columns of all rows in the given table matching the given where clause
+	 * with ? placeholders replaced by the given values in order. Only reading the columns
+	 * you need saves memory and bandwidth on large tables. Example use:
+	 *
+	 * select(table, Arrays.asList("Player", "Status"), "Status = ?", resultSet, "PENDING");
+	 *
+	 * @param table
+	 * @param columns the columns to read, or null to read all
+	 * @param where
+	 * @param consumer
+	 * @param values
+	 */
+	protected final void select(final String table, @Nullable final Collection<String> columns, @Nullable final String where, final ResultReader consumer, final Object... values) {
+		if (!this.isLoaded())
+			return;
+
+		this.readRows(table, "SELECT " + buildColumns(columns) + " FROM " + table + (where == null ? "" : " WHERE " + where), values, where == null ? "all" : where, consumer);
+	}
+
+	/**
+	 * Lists all rows in the given table matching the given where clauses. Example use:
+	 *
+	 * Map<String, Object> conditions = new HashMap<>();
+	 *
+	 * conditions.put("name", "John");
+	 * conditions.put("age", 30);
+	 * conditions.put("city", "%New York%");
+	 *
+	 * Do not forget to close the connection when done in your consumer.
+	 *
+	 * @param table
+	 * @param where
+	 * @param consumer
+	 */
+	protected final void select(final String table, @Nullable final Map<String, Object> where, final ResultReader consumer) {
+		this.select(table, null, where, consumer);
+	}
+
+	/**
+	 * Lists the given columns of all rows in the given table matching the given where clauses,
+	 * see {@link #select(String, Map, ResultReader)}
+	 *
+	 * @param table
+	 * @param columns the columns to read, or null to read all
+	 * @param where
+	 * @param consumer
+	 */
+	protected final void select(final String table, @Nullable final Collection<String> columns, @Nullable final Map<String, Object> where, final ResultReader consumer) {
+		if (!this.isLoaded())
+			return;
+
+		final List<Object> values = new ArrayList<>();
+
+		this.readRows(table, "SELECT " + buildColumns(columns) + " FROM " + table + " " + buildWhere(where, values), values.toArray(), where == null ? "all" : where.toString(), consumer);
+	}
+
+	/**
+	 * Reads the given columns of all rows in the given table matching the given where clause
+	 * with ? placeholders replaced by the given values in order into new objects, see {@link RowMapper}.
+	 * Example use:
+	 *
+	 * List<Reward> rewards = selectAs(table, null, "Player = ?", Reward.class, player.getUniqueId());
+	 *
+	 * @param <T>
+	 * @param table
+	 * @param columns the columns to read, or null to read all
+	 * @param where
+	 * @param type
+	 * @param values
+	 * @return
+	 */
+	protected final <T> List<T> selectAs(final String table, @Nullable final Collection<String> columns, @Nullable final String where, final Class<T> type, final Object... values) {
+		final List<T> rows = new ArrayList<>();
+
+		if (!this.isLoaded())
+			return rows;
+
+		final RowMapper<T> mapper = new RowMapper<>(type);
+
+		this.readRows(table, "SELECT " + buildColumns(columns) + " FROM " + table + (where == null ? "" : " WHERE " + where), values, where == null ? "all" : where, set -> rows.add(mapper.map(set.getDelegate())));
+
+		return rows;
+	}
+
+	/**
+	 * Reads the given columns of all rows in the given table matching the given where clauses
+	 * into new objects, see {@link RowMapper} and {@link #select(String, Map, ResultReader)}
+	 *
+	 * @param <T>
+	 * @param table
+	 * @param columns the columns to read, or null to read all
+	 * @param where
+	 * @param type
+	 * @return
+	 */
+	protected final <T> List<T> selectAs(final String table, @Nullable final Collection<String> columns, @Nullable final Map<String, Object> where, final Class<T> type) {
+		final List<T> rows = new ArrayList<>();
+
+		if (!this.isLoaded())
+			return rows;
+
+		final RowMapper<T> mapper = new RowMapper<>(type);
+		final List<Object> values = new ArrayList<>();
+
+		this.readRows(table, "SELECT " + buildColumns(columns) + " FROM " + table + " " + buildWhere(where, values), values.toArray(), where == null ? "all" : where.toString(), set -> rows.add(mapper.map(set.getDelegate())));
+
+		return rows;
+	}
+
+	/**
+	 * How many rows the driver fetches from the database at once when selecting,
+	 * so that large tables do not need to be loaded into memory in full.
+	 * <p>
+	 * Return {@link Integer#MIN_VALUE} on MySQL to stream rows one by one. While streaming,
+	 * the connection cannot run other queries, so do not query the database from your
+	 * {@link ResultReader} unless you are using HikariCP.
+	 * <p>
+	 * Default: 0 (driver default, MySQL reads all rows at once)
+	 *
+	 * @return
+	 */
+	protected int getFetchSize() {
+		return 0;
+	}
+
+	/*
+	 * Selects all rows in the given table matching the given where clause like
+	 * {@link #select(String, String, ResultReader, Object...)}, but throws errors to the caller
+	 * instead of logging them so that it can tell a failed read from no rows
+	 */
+	final void selectOrThrow(final String table, final String where, final ResultReader consumer, final Object... values) throws SQLException {
+		this.checkEstablished();
+
+		this.readRowsOrThrow(table, "SELECT * FROM " + table + " WHERE " + where, values, where, consumer);
+	}
+
+	/*
+	 * See {@link #readRowsOrThrow(String, String, Object[], String, ResultReader)}, logging errors
+	 */
+	private void readRows(final String table, final String sql, final Object[] values, final String whereDescription, final ResultReader consumer) {
+		try {
+			this.readRowsOrThrow(table, sql, values, whereDescription, consumer);
+
+		} catch (final Throwable t) {
+			if (isMissingTable(t))
+				return;
+
+			Common.error(t, "Error selecting rows from table " + table + " where " + whereDescription);
+		}
+	}
+
+	/*
+	 * Runs the given select query and passes each row to the consumer while
+	 * holding the connection, so that the rows are read before it is returned to the pool.
+	 * Rows are read forward only and fetched per {@link #getFetchSize()}
+	 */
+	private void readRowsOrThrow(final String table, final String sql, final Object[] values, final String whereDescription, final ResultReader consumer) throws SQLException {
+		final String tableName = this.replaceVariables(table);
+		final int fetchSize = this.getFetchSize();
+		final boolean[] delivered = { false };
+
+		// Once the consumer got a row, running the select again would pass it on twice
+		this.executePrepared(this.replaceVariables(sql), values, true, () -> !delivered[0], statement -> {
+
+			// SQLite does not support streaming and rejects negative values
+			if (fetchSize > 0 || (fetchSize == Integer.MIN_VALUE && this.dialect.supportsStreaming()))
+				statement.setFetchSize(fetchSize);
+
+			try (ResultSet resultSet = statement.executeQuery()) {
+				final SimpleResultSet simpleResultSet = new SimpleResultSet(tableName, resultSet);
+
+				final long[] consumerNanos = this.consumerNanos.get();
+
+				while (resultSet.next()) {
+					final long consumerStartNanos = System.nanoTime();
+
+					try {
+						delivered[0] = true;
+
+						consumer.accept(simpleResultSet);
+
+					} catch (final InvalidRowException ex) {
+						// Pardoned
+
+					} catch (final Throwable t) {
+						Common.log("Error reading a row from table " + tableName + " where " + whereDescription + ", aborting...");
+
+						t.printStackTrace();
+						break;
+
+					} finally {
+						consumerNanos[0] += System.nanoTime() - consumerStartNanos;
+					}
+				}
+			}
+
+			return null;
+		});
+	}
+
+	/*
+	 * Joins the given columns for the select clause or returns * for all
+	 */
+	private static String buildColumns(@Nullable final Collection<String> columns) {
+		return columns == null || columns.isEmpty() ? "*" : String.join(", ", columns);
+	}
+
+	/*
+	 * Builds the where clause with ? placeholders, adding the values to bind in order
+	 */
+	private static String buildWhere(final Map<String, Object> conditions, final List<Object> values) {
+		if (conditions == null || conditions.isEmpty())
+			return "";
+
+		final List<String> clauses = new ArrayList<>();
+
+		conditions.forEach((key, value) -> {
+			clauses.add(key + " = ?");
+
+			// Booleans used to be compared as TRUE/FALSE literals which equal 1/0
+			values.add(value instanceof Boolean ? ((Boolean) value ? 1 : 0) : value);
+		});
+
+		return "WHERE " + String.join(" AND ", clauses);
+	}
+
+	/**
+	 * Returns the amount of rows from the given table per the key-value conditions.
+	 *
+	 * Example conditions: count("MyTable", "Player", "kangarko, "Status", "PENDING")
+	 * This example will return all rows where column Player is equal to kangarko and Status column equals PENDING.
+	 *
+	 * @param table
+	 * @param array
+	 * @return
+	 */
+	protected final int count(final String table, final Object... array) {
+		return this.count(table, SerializedMap.ofArray(array));
+	}
+
+	/**
+	 * Returns the amount of rows from the given table per the conditions,
+	 *
+	 * Example conditions: SerializedMap.ofArray("Player", "kangarko, "Status", "PENDING")
+	 * This example will return all rows where column Player is equal to kangarko and Status column equals PENDING.
+	 *
+	 * @param table
+	 * @param conditions
+	 * @return
+	 */
+	protected final int count(final String table, final SerializedMap conditions) {
+
+		// Convert conditions into SQL syntax
+		final Set<String> conditionsList = Common.convertSet(conditions.keySet(), column -> column + " = ?");
+		final Object[] values = conditions.values().toArray();
+
+		// Run the query
+		final String sql = this.replaceVariables("SELECT COUNT(*) FROM " + table + (conditionsList.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditionsList)));
+
+		try {
+			return this.executePrepared(sql, values, true, statement -> {
+				try (ResultSet resultSet = statement.executeQuery()) {
+					return resultSet.next() ? resultSet.getInt(1) : 0;
+				}
+			});
+
+		} catch (final SQLException ex) {
+			Common.throwError(ex,
+					"Unable to count rows!",
+					"Table: " + this.replaceVariables(table),
+					"Conditions: " + conditions,
+					"Query: " + sql);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Attempts to execute a new query
+	 * <p>
+	 * Make sure you called connect() first otherwise an error will be thrown
+	 * <p>
+	 * When using HikariCP, the connection is returned to the pool right away and
+	 * you receive a disconnected copy of the results, see {@link CachedRowSet}.
+	 *
+	 * @param sql
+	 * @return
+	 */
+	protected final ResultSet query(String sql) {
+		this.checkEstablished();
+
+		sql = this.replaceVariables(sql);
+
+		Debugger.debug("mysql", "Querying database with: " + sql);
+
+		final String finalSql = sql;
+
+		try {
+			return this.execute(finalSql, true, connection -> {
+				final Statement statement = connection.createStatement();
+				final ResultSet resultSet = statement.executeQuery(finalSql);
+
+				if (this.hikariDataSource == null)
+					return resultSet;
+
+				try {
+					final CachedRowSet cachedResults = getRowSetFactory().createCachedRowSet();
+					cachedResults.populate(resultSet);
+
+					return cachedResults;
+
+				} finally {
+					statement.close();
+				}
+			});
+
+		} catch (final SQLException ex) {
+			if (isMissingTable(ex))
+				return new DummyResultSet();
+
+			this.handleError(ex, "Error on querying database with: " + sql);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Executes a massive batch update, see {@link #batchUpdate(List, int, BatchProgress)}
+	 *
+	 * @param sqls
+	 * @return how many SQLs from the start of the list were committed
+	 */
+	protected final int batchUpdate(@NonNull final List<String> sqls) {
+		return this.batchUpdate(sqls, 0, null);
+	}
+
+	/**
+	 * Executes a massive batch update, see {@link #batchUpdate(List, int, BatchProgress)}
+	 *
+	 * @param sqls
+	 * @param progress
+	 * @return how many SQLs from the start of the list were committed
+	 */
+	protected final int batchUpdate(@NonNull final List<String> sqls, @Nullable final BatchProgress progress) {
+		return this.batchUpdate(sqls, 0, progress);
+	}
+
+	/**
+	 * Executes a massive batch update in chunks of {@link #getBatchChunkSize()} SQLs,
+	 * each committed in its own transaction. Other queries can run between chunks.
+	 * <p>
+	 * A chunk that fails because the connection was lost before it started is retried once.
+	 * If it fails while running, the chunk is rolled back and we stop, returning how many SQLs were committed. Pass that
+	 * number as fromIndex to resume after the last committed chunk.
+	 *
+	 * @param sqls
+	 * @param fromIndex the index of the first SQL to execute
+	 * @param progress called after each committed chunk, or null
+	 * @return how many SQLs from the start of the list were committed
+	 */
+	protected final int batchUpdate(@NonNull final List<String> sqls, final int fromIndex, @Nullable final BatchProgress progress) {
+		Valid.checkBoolean(fromIndex >= 0 && fromIndex <= sqls.size(), "Batch update start index " + fromIndex + " out of bounds for " + sqls.size() + " SQLs");
+
+		if (fromIndex == sqls.size())
+			return fromIndex;
+
+		this.checkEstablished();
+
+		final int total = sqls.size();
+		final int chunkSize = Math.max(1, this.getBatchChunkSize());
+		int committed = fromIndex;
+
+		if (total - fromIndex > 10_000)
+			Common.log("Updating your database (" + (total - fromIndex) + " entries in chunks of " + chunkSize + ")... PLEASE BE PATIENT - If server will print a crash report, ignore it, update will proceed.");
+
+		while (committed < total) {
+			final List<String> chunk = sqls.subList(committed, Math.min(committed + chunkSize, total));
+
+			try {
+				this.execute("[batch] " + chunk.get(0), connection -> {
+					try (Statement batchStatement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+						for (final String sql : chunk)
+							batchStatement.addBatch(this.replaceVariables(sql));
+
+						// Prevent automatically sending db instructions
+						connection.setAutoCommit(false);
+
+						try {
+							batchStatement.executeBatch();
+
+							connection.commit();
+
+						} catch (final SQLException | RuntimeException ex) {
+							rollback(connection, ex);
+							restoreAutoCommit(connection, ex);
+
+							throw ex;
+						}
+
+						restoreAutoCommit(connection, null);
+					}
+
+					return null;
+				});
+
+			} catch (final Throwable t) {
+				final List<String> errorMessage = new ArrayList<>();
+
+				errorMessage.add("Error executing a batch update chunk with " + chunk.size() + " SQLs, " + committed + "/" + total + " were committed before:");
+				errorMessage.addAll(chunk);
+
+				Common.error(t, Common.toArray(errorMessage));
+
+				return committed;
+			}
+
+			committed += chunk.size();
+
+			if (progress != null)
+				progress.onProgress(committed, total);
+		}
+
+		return committed;
+	}
+
+	/**
+	 * Attempts to return a prepared statement
+	 * <p>
+	 * Make sure you called connect() first otherwise an error will be thrown
+	 * <p>
+	 * When using HikariCP, the statement holds a connection borrowed from the pool
+	 * until you close it, so always use try-with-resources.
+	 *
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	protected final PreparedStatement prepareStatement(String sql) throws SQLException {
+		return this.prepareStatement0(sql, connection -> connection.prepareStatement(this.replaceVariables(sql)));
+	}
+
+	/**
+	 * Attempts to return a prepared statement
+	 * <p>
+	 * Make sure you called connect() first otherwise an error will be thrown
+	 * <p>
+	 * When using HikariCP, the statement holds a connection borrowed from the pool
+	 * until you close it, so always use try-with-resources.
+	 *
+	 * @param sql
+	 * @param type
+	 * @param concurrency
+	 *
+	 * @return
+	 * @throws SQLException
+	 */
+	protected final PreparedStatement prepareStatement(String sql, final int type, final int concurrency) throws SQLException {
+		return this.prepareStatement0(sql, connection -> connection.prepareStatement(this.replaceVariables(sql), type, concurrency));
+	}
+
+	/*
+	 * Prepares a statement on the shared connection, or on a pooled connection
+	 * that is returned to the pool once the statement is closed
+	 */
+	private PreparedStatement prepareStatement0(final String sql, final ConnectionFunction<PreparedStatement> preparer) throws SQLException {
+		return this.retryIfConnectionLost(() -> this.prepareStatementOnce(sql, preparer));
+	}
+
+	/*
+	 * See {@link #prepareStatement0(String, ConnectionFunction)}
+	 */
+	private PreparedStatement prepareStatementOnce(final String sql, final ConnectionFunction<PreparedStatement> preparer) throws SQLException {
+		this.checkEstablished();
+		this.ensureConnected();
+
+		Debugger.debug("mysql", "Preparing statement: " + this.replaceVariables(sql));
+
+		if (this.hikariDataSource == null)
+			synchronized (this.connectionLock) {
+				return preparer.apply(this.connection);
+			}
+
+		final Connection connection = this.hikariDataSource.getConnection();
+
+		try {
+			final PreparedStatement statement = preparer.apply(connection);
+
+			return (PreparedStatement) Proxy.newProxyInstance(SimpleDatabase.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+				try {
+					final Object result = method.invoke(statement, args);
+
+					// Closing the statement a result set returns must give back the connection too
+					return result instanceof ResultSet ? wrapResultSet((ResultSet) result, (Statement) proxy) : result;
+
+				} catch (final InvocationTargetException ex) {
+					throw ex.getCause();
+
+				} finally {
+					if ("close".equals(method.getName()))
+						connection.close();
+				}
+			});
+
+		} catch (final SQLException ex) {
+			connection.close();
+
+			throw ex;
+		}
+	}
+
+	/*
+	 * Return the result set returning the given statement from getStatement() instead of
+	 * the one it was created by, see {@link #prepareStatementOnce(String, ConnectionFunction)}
+	 */
+	private static ResultSet wrapResultSet(final ResultSet resultSet, final Statement statement) {
+		return (ResultSet) Proxy.newProxyInstance(SimpleDatabase.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+			if ("getStatement".equals(method.getName()) && method.getParameterCount() == 0)
+				return statement;
+
+			try {
+				return method.invoke(resultSet, args);
+
+			} catch (final InvocationTargetException ex) {
+				throw ex.getCause();
+			}
+		});
+	}
+
+	/*
+	 * Runs the given function with a connection, either borrowed from the pool
+	 * when using HikariCP or the single shared connection otherwise, measuring
+	 * the time it took under the given SQL, see {@link #getQueryTimings()}
+	 */
+	private <T> T execute(final String sql, final ConnectionFunction<T> function) throws SQLException {
+		return this.execute(sql, false, function);
+	}
+
+	/*
+	 * See {@link #execute(String, ConnectionFunction)}, reads are routed to a read replica
+	 * if available and fall back to the primary database if the replica fails to connect
+	 * or loses the connection before passing any rows on.
+	 * Reads are run again if the connection is lost while running them, writes are not
+	 */
+	private <T> T execute(final String sql, final boolean read, final ConnectionFunction<T> function) throws SQLException {
+		return this.execute(sql, read, read ? () -> true : () -> false, function);
+	}
+
+	/*
+	 * See {@link #execute(String, boolean, ConnectionFunction)}, running the function again
+	 * when the connection is lost while running it only if retryable returns true, such as
+	 * when a read did not pass any rows on yet
+	 */
+	private <T> T execute(final String sql, final boolean read, final BooleanSupplier retryable, final ConnectionFunction<T> function) throws SQLException {
+		final ReadReplica replica = read ? this.pickReplica() : null;
+
+		if (replica != null) {
+			final long requestedNanos = System.nanoTime();
+
+			try (Connection connection = replica.getDataSource().getConnection()) {
+				return this.measure(sql, requestedNanos, replica, () -> function.apply(connection));
+
+			} catch (final SQLException ex) {
+				if (!isConnectionLost(ex) && !(ex instanceof SQLTransientConnectionException))
+					throw ex;
+
+				this.ejectReplica(replica, ex);
+
+				// Reading from the primary would pass rows the replica already passed on again
+				if (!retryable.getAsBoolean())
+					throw ex;
+			}
+		}
+
+		return this.executeOnPrimary(sql, retryable, function);
+	}
+
+	/*
+	 * Runs the function on the primary database. If the connection was lost, we reconnect and run
+	 * it once more, but only if we failed to get the connection or retryable returns true, so that
+	 * writes the database may have committed and rows already passed on are not repeated
+	 */
+	private <T> T executeOnPrimary(final String sql, final BooleanSupplier retryable, final ConnectionFunction<T> function) throws SQLException {
+		final boolean[] started = { false };
+
+		try {
+			return this.executeOnPrimaryOnce(sql, started, function);
+
+		} catch (final SQLException ex) {
+			if (!isConnectionLost(ex))
+				throw ex;
+
+			this.markConnectionLost();
+
+			if (started[0] && !retryable.getAsBoolean())
+				throw ex;
+
+			Debugger.debug("mysql", "Lost database connection (SQLState " + ex.getSQLState() + "), reconnecting and retrying once: " + ex.getMessage());
+
+			started[0] = false;
+			return this.executeOnPrimaryOnce(sql, started, function);
+		}
+	}
+
+	/*
+	 * See {@link #executeOnPrimary(String, BooleanSupplier, ConnectionFunction)}, marking started once we
+	 * have the connection and begin running the function
+	 */
+	private <T> T executeOnPrimaryOnce(final String sql, final boolean[] started, final ConnectionFunction<T> function) throws SQLException {
+		this.checkEstablished();
+		this.ensureConnected();
+
+		final long requestedNanos = System.nanoTime();
+
+		if (this.hikariDataSource != null)
+			try (Connection connection = this.hikariDataSource.getConnection()) {
+				started[0] = true;
+
+				return this.measure(sql, requestedNanos, () -> function.apply(connection));
+			}
+
+		synchronized (this.connectionLock) {
+			started[0] = true;
+
+			return this.measure(sql, requestedNanos, () -> function.apply(this.connection));
+		}
+	}
+
+	/*
+	 * Runs the call once we got the connection, recording how long we waited for it
+	 * since it was requested and how long the call took, without the time spent
+	 * passing rows to consumers
+	 */
+	private <T> T measure(final String sql, final long requestedNanos, final SqlCall<T> call) throws SQLException {
+		return this.measure(sql, requestedNanos, null, call);
+	}
+
+	/*
+	 * See {@link #measure(String, long, SqlCall)}, also adding the execution time to the
+	 * replica's average if the call succeeded
+	 */
+	private <T> T measure(final String sql, final long requestedNanos, @Nullable final ReadReplica replica, final SqlCall<T> call) throws SQLException {
+		final long[] consumerNanos = this.consumerNanos.get();
+		final long consumerNanosBefore = consumerNanos[0];
+		final long startNanos = System.nanoTime();
+		boolean succeeded = false;
+
+		try {
+			final T result = call.call();
+
+			succeeded = true;
+			return result;
+
+		} finally {
+			final long executionNanos = System.nanoTime() - startNanos - (consumerNanos[0] - consumerNanosBefore);
+
+			// Consumers running own queries are measured by them, so only leave out ours once
+			consumerNanos[0] = consumerNanosBefore;
+
+			this.recordTiming(sql, startNanos - requestedNanos, executionNanos);
+
+			if (replica != null && succeeded)
+				replica.recordLatency(executionNanos);
+		}
+	}
+
+	/*
+	 * Adds the statement to its timings and logs it if it was slow. Since we may
+	 * hold the connection lock here, the log is written on another thread
+	 */
+	private void recordTiming(final String sql, final long waitNanos, final long executionNanos) {
+		String shape = this.shapes.get(sql);
+
+		if (shape == null) {
+			shape = QueryTimings.normalize(sql);
+
+			// SQL with values written in can be different every time, so only remember so many
+			if (this.shapes.size() < MAX_CACHED_SHAPES)
+				this.shapes.put(sql, shape);
+		}
+
+		QueryTimings timings = this.queryTimings.get(shape);
+
+		if (timings == null)
+			timings = this.queryTimings.computeIfAbsent(this.queryTimings.size() < MAX_QUERY_SHAPES ? shape : "(other)", QueryTimings::new);
+
+		timings.record(waitNanos, executionNanos);
+
+		final int thresholdMillis = this.getSlowQueryThresholdMillis();
+		final double tookMillis = (waitNanos + executionNanos) / 1_000_000D;
+
+		if (thresholdMillis != -1 && tookMillis >= thresholdMillis) {
+			final String message = "Slow query took " + MathUtil.formatTwoDigits(tookMillis) + " ms (waited " + MathUtil.formatTwoDigits(waitNanos / 1_000_000D)
+					+ " ms for connection): " + (sql.length() > 500 ? sql.substring(0, 500) + "..." : sql);
+
+			this.runAsync(() -> {
+				Common.log(message);
+				FileUtil.writeFormatted(SLOW_QUERY_LOG, message);
+			});
+		}
+	}
+
+	/**
+	 * Runs background work such as writing the slow query log or, in {@link SimpleFlatDatabase},
+	 * queued load and save operations off the calling thread. You can override this to run
+	 * them outside of a proxy, such as in benchmarks.
+	 * <p>
+	 * Default: the proxy scheduler
+	 *
+	 * @param task
+	 */
+	protected void runAsync(final Runnable task) {
+		Common.runAsync(task);
+	}
+
+	/**
+	 * Return timings of statements run through this database grouped by their shape,
+	 * which is the SQL with values replaced by ?
+	 * <p>
+	 * Statements you run yourself using {@link #prepareStatement(String)} are not included,
+	 * and for selects, the time your code spends reading each row is left out.
+	 *
+	 * @return
+	 */
+	public final Collection<QueryTimings> getQueryTimings() {
+		return Collections.unmodifiableCollection(this.queryTimings.values());
+	}
+
+	/**
+	 * Forget all timings from {@link #getQueryTimings()}
+	 */
+	public final void resetQueryTimings() {
+		this.queryTimings.clear();
+		this.shapes.clear();
+	}
+
+	/*
+	 * Runs the call and if it fails because the connection was lost, marks the connection
+	 * as broken so that it is reopened and runs the call once more. Only use for calls
+	 * that are safe to repeat, such as preparing a statement which does not run it
+	 */
+	private <T> T retryIfConnectionLost(final SqlCall<T> call) throws SQLException {
+		try {
+			return call.call();
+
+		} catch (final SQLException ex) {
+			if (!isConnectionLost(ex))
+				throw ex;
+
+			Debugger.debug("mysql", "Lost database connection (SQLState " + ex.getSQLState() + "), reconnecting and retrying once: " + ex.getMessage());
+
+			this.markConnectionLost();
+
+			return call.call();
+		}
+	}
+
+	/*
+	 * Marks the single connection as broken and closes it so that it is reopened on next use,
+	 * pooled connections are evicted by the pool itself
+	 */
+	private void markConnectionLost() {
+		if (this.connection != null)
+			synchronized (this.connectionLock) {
+				this.healthy = false;
+
+				try {
+					this.connection.close();
+
+				} catch (final SQLException closeEx) {
+					// Already broken
+				}
+			}
+	}
+
+	/*
+	 * Reconnects using the last credentials if the connection is not valid, holding the lock
+	 * so that concurrent callers reconnect only once
+	 */
+	private void ensureConnected() {
+		if (this.isConnected())
+			return;
+
+		synchronized (this.connectionLock) {
+			if (this.isConnected())
+				return;
+
+			// Do not leak the broken connection, the pool is shut down in connect()
+			if (this.connection != null)
+				try {
+					this.connection.close();
+
+				} catch (final SQLException ex) {
+					// Already broken
+				}
+
+			this.connectUsingLastCredentials();
+		}
+	}
+
+	/*
+	 * Return true if the error means the connection to the database was lost,
+	 * SQLState class 08 is reserved for connection exceptions
+	 */
+	private static boolean isConnectionLost(final SQLException ex) {
+		final String state = ex.getSQLState();
+
+		return ex instanceof SQLRecoverableException || state != null && state.startsWith("08");
+	}
+
+	/*
+	 * Runs the function with a prepared statement for the given query with the values bound.
+	 * The statement is reused from the cache on the single connection, while pooled connections
+	 * rely on the driver's cache, see {@link #getStatementCacheSize()}
+	 */
+	private <T> T executePrepared(final String sql, final Object[] values, final StatementFunction<T> function) throws SQLException {
+		return this.executePrepared(sql, values, false, function);
+	}
+
+	/*
+	 * See {@link #executePrepared(String, Object[], StatementFunction)}, routing reads to read replicas
+	 */
+	private <T> T executePrepared(final String sql, final Object[] values, final boolean read, final StatementFunction<T> function) throws SQLException {
+		return this.executePrepared(sql, values, read, read ? () -> true : () -> false, function);
+	}
+
+	/*
+	 * See {@link #executePrepared(String, Object[], boolean, StatementFunction)} and {@link #execute(String, boolean, BooleanSupplier, ConnectionFunction)}
+	 */
+	private <T> T executePrepared(final String sql, final Object[] values, final boolean read, final BooleanSupplier retryable, final StatementFunction<T> function) throws SQLException {
+		return this.execute(sql, read, retryable, connection -> {
+			if (this.hikariDataSource != null)
+				try (PreparedStatement statement = connection.prepareStatement(sql)) {
+					for (int i = 0; i < values.length; i++)
+						bindValue(statement, i + 1, values[i]);
+
+					return function.apply(statement);
+				}
+
+			final PreparedStatement statement = this.statementCache.checkOut(connection, sql, this.getStatementCacheSize());
+
+			try {
+				for (int i = 0; i < values.length; i++)
+					bindValue(statement, i + 1, values[i]);
+
+				return function.apply(statement);
+
+			} finally {
+				this.statementCache.checkIn(sql, statement);
+			}
+		});
+	}
+
+	/*
+	 * Return true if the error indicates that the queried table does not exist
+	 */
+	private static boolean isMissingTable(final Throwable throwable) {
+		return throwable instanceof SQLSyntaxErrorException && throwable.getMessage() != null && throwable.getMessage().startsWith("Table") && throwable.getMessage().endsWith("doesn't exist");
+	}
+
+	/*
+	 * Return the factory used to create disconnected copies of pooled results
+	 */
+	private static RowSetFactory getRowSetFactory() throws SQLException {
+		if (rowSetFactory == null)
+			rowSetFactory = RowSetProvider.newFactory();
+
+		return rowSetFactory;
+	}
+
+	/**
+	 * Is the connection established, open and valid?
+	 * <p>
+	 * The single connection is pinged in the background every {@link #getHealthCheckIntervalTicks()}
+	 * and we return the last result, or perform a blocking ping now if the interval is disabled.
+	 * <p>
+	 * When using HikariCP, the pool validates connections itself
+	 * so we only check if the pool is still open.
+	 *
+	 * @return whether the connection driver was set
+	 */
+	protected final boolean isConnected() {
+		if (!this.isLoaded())
+			return false;
+
+		if (this.hikariDataSource != null) {
+			final boolean closed = ReflectionUtil.invoke(this.hikariIsClosed, this.hikariDataSource);
+
+			return !closed;
+		}
+
+		if (this.healthCheckTask != null)
+			return this.healthy;
+
+		return this.validateConnection();
+	}
+
+	/*
+	 * Performs a blocking ping on the single connection and remembers the result
+	 */
+	private boolean validateConnection() {
+		boolean valid = true;
+
+		try {
+			if (!this.connection.isValid(0))
+				valid = false;
+		} catch (SQLException | AbstractMethodError err) {
+			// Pass through silently
+		}
+
+		try {
+			valid = valid && !this.connection.isClosed();
+
+		} catch (final SQLException ex) {
+			valid = false;
+		}
+
+		if (this.healthy && !valid)
+			Debugger.debug("mysql", "Database connection is no longer valid, reconnecting on next query");
+
+		this.healthy = valid;
+
+		return valid;
+	}
+
+	/*
+	 * Checks if there's a collation-related error and prints warning message for the user to
+	 * update his database.
+	 */
+	private void handleError(final Throwable t, final String fallbackMessage) {
+		if (t.toString().contains("Unknown collation")) {
+			Common.log("You need to update your database provider driver. We switched to support unicode using 4 bits length because the previous system only supported 3 bits.");
+			Common.log("Some characters such as smiley or Chinese are stored in 4 bits so they would crash the 3-bit database leading to more problems. Most hosting providers have now widely adopted the utf8mb4_unicode_520_ci encoding you seem lacking. Disable database connection or update your driver to fix this.");
+		}
+
+		else if (t.toString().contains("Incorrect string value")) {
+			Common.log("Attempted to save unicode letters (e.g. coors) to your database with invalid encoding, see https://stackoverflow.com/a/10959780 and adjust it. MariaDB may cause issues, use MySQL 8.0 for best results.");
+
+			t.printStackTrace();
+
+		} else
+			Common.throwError(t, fallbackMessage);
+	}
+
+	// --------------------------------------------------------------------
+	// Asynchronous querying
+	// --------------------------------------------------------------------
+
+	/**
+	 * Runs {@link #update(String)} on the database executor
+	 *
+	 * @param sql
+	 * @return
+	 */
+	protected final CompletableFuture<Void> updateAsync(final String sql) {
+		return this.supplyAsync(() -> {
+			this.update(sql);
+
+			return null;
+		});
+	}
+
+	/**
+	 * Runs {@link #update(String, Object...)} on the database executor
 	 *
 	 * @param sql
+	 * @param values
 	 * @return
 	 */
-	protected final ResultSet query(String sql) {
-		synchronized (this.connection) {
-			this.checkEstablished();
-
-			if (!this.isConnected())
-				this.connectUsingLastCredentials();
-
-			sql = this.replaceVariables(sql);
-
-			Debugger.debug("mysql", "Querying database with: " + sql);
-
-			try {
-				final Statement statement = this.connection.createStatement();
-				final ResultSet resultSet = statement.executeQuery(sql);
-
-				return resultSet;
-
-			} catch (final SQLException ex) {
-				if (ex instanceof SQLSyntaxErrorException && ex.getMessage().startsWith("Table") && ex.getMessage().endsWith("doesn't exist"))
-					return new DummyResultSet();
-
-				this.handleError(ex, "Error on querying database with: " + sql);
-			}
+	protected final CompletableFuture<Void> updateAsync(final String sql, final Object... values) {
+		return this.supplyAsync(() -> {
+			this.update(sql, values);
 
 			return null;
-		}
+		});
 	}
 
 	/**
-	 * Executes a massive batch update
+	 * Runs {@link #batchUpdate(List)} on the database executor
 	 *
 	 * @param sqls
+	 * @return how many SQLs from the start of the list were committed
 	 */
-	protected final void batchUpdate(@NonNull final List<String> sqls) {
-		if (sqls.isEmpty())
-			return;
-
-		synchronized (this.connection) {
-			this.checkEstablished();
-
-			if (!this.isConnected())
-				this.connectUsingLastCredentials();
-
-			try (Statement batchStatement = this.getConnection().createStatement(this.isSQLite ? ResultSet.TYPE_FORWARD_ONLY : ResultSet.TYPE_SCROLL_SENSITIVE, this.isSQLite ? ResultSet.CONCUR_READ_ONLY : ResultSet.CONCUR_UPDATABLE)) {
-				final int processedCount = sqls.size();
-
-				for (final String sql : sqls)
-					batchStatement.addBatch(this.replaceVariables(sql));
-
-				if (processedCount > 10_000)
-					Common.log("Updating your database (" + processedCount + " entries)... PLEASE BE PATIENT THIS WILL TAKE "
-							+ (processedCount > 50_000 ? "10-20 MINUTES" : "5-10 MINUTES") + " - If server will print a crash report, ignore it, update will proceed.");
-
-				// Prevent automatically sending db instructions
-				this.getConnection().setAutoCommit(false);
-
-				try {
-					// Execute
-					batchStatement.executeBatch();
-
-					// This will block the thread
-					this.getConnection().commit();
-
-				} catch (final Throwable t) {
-					final List<String> errorMessage = new ArrayList<>();
-
-					errorMessage.add("Error executing a batch update with " + sqls.size() + " SQLs:");
+	protected final CompletableFuture<Integer> batchUpdateAsync(@NonNull final List<String> sqls) {
+		return this.batchUpdateAsync(sqls, null);
+	}
 
-					for (final String sql : sqls)
-						errorMessage.add(sql);
+	/**
+	 * Runs {@link #batchUpdate(List, BatchProgress)} on the database executor
+	 *
+	 * @param sqls
+	 * @param progress
+	 * @return how many SQLs from the start of the list were committed
+	 */
+	protected final CompletableFuture<Integer> batchUpdateAsync(@NonNull final List<String> sqls, @Nullable final BatchProgress progress) {
+		return this.supplyAsync(() -> this.batchUpdate(sqls, progress));
+	}
 
-					Common.error(t, Common.toArray(errorMessage));
+	/**
+	 * Runs the query with ? placeholders replaced by the given values on the
+	 * database executor, completing with all rows read as column-value maps
+	 * without null values
+	 *
+	 * @param sql
+	 * @param values
+	 * @return
+	 */
+	protected final CompletableFuture<List<SerializedMap>> queryAsync(final String sql, final Object... values) {
+		return this.supplyAsync(() -> {
+			try {
+				return this.executePrepared(this.replaceVariables(sql), values, true, statement -> {
+					final List<SerializedMap> rows = new ArrayList<>();
 
-					// Cancel the task but handle the error upstream
-					throw t;
-				}
+					try (ResultSet resultSet = statement.executeQuery()) {
+						final String[] labels = RowMapper.getLabels(resultSet.getMetaData());
 
-			} catch (final Throwable t) {
-				t.printStackTrace();
+						while (resultSet.next())
+							rows.add(RowMapper.toMap(resultSet, labels));
+					}
 
-			} finally {
-				try {
-					this.getConnection().setAutoCommit(true);
+					return rows;
+				});
 
-				} catch (final SQLException ex) {
-					ex.printStackTrace();
-				}
+			} catch (final SQLException ex) {
+				throw new CompletionException(ex);
 			}
-		}
+		});
 	}
 
 	/**
-	 * Attempts to return a prepared statement
+	 * Runs the given database code on the database executor instead of the caller's thread.
 	 * <p>
-	 * Make sure you called connect() first otherwise an error will be thrown
+	 * The executor has as many threads as {@link #getMaximumPoolSize()} when using HikariCP
+	 * or one thread otherwise. When {@link #getAsyncQueueSize()} tasks are waiting, the returned
+	 * future fails with a {@link RejectedExecutionException} instead of piling up more work.
+	 * <p>
+	 * When called inside {@link #readFromPrimary(Supplier)}, the task reads from the primary too.
 	 *
-	 * @param sql
+	 * @param <T>
+	 * @param task
 	 * @return
-	 * @throws SQLException
 	 */
-	protected final java.sql.PreparedStatement prepareStatement(String sql) throws SQLException {
-		synchronized (this.connection) {
-			this.checkEstablished();
+	protected final <T> CompletableFuture<T> supplyAsync(@NonNull final Supplier<T> task) {
+
+		// The executor thread does not know we are reading from the primary, so carry it over
+		final Supplier<T> reads = this.primaryReadDepth.get() > 0 ? () -> this.readFromPrimary(task) : task;
 
-			if (!this.isConnected())
-				this.connectUsingLastCredentials();
+		try {
+			return CompletableFuture.supplyAsync(reads, this.getAsyncExecutor());
 
-			sql = this.replaceVariables(sql);
+		} catch (final RejectedExecutionException ex) {
+			final CompletableFuture<T> future = new CompletableFuture<>();
+			future.completeExceptionally(ex);
 
-			Debugger.debug("mysql", "Preparing statement: " + sql);
-			return this.connection.prepareStatement(sql);
+			return future;
 		}
 	}
 
 	/**
-	 * Attempts to return a prepared statement
+	 * How many asynchronous tasks can wait for the database executor before new tasks
+	 * are rejected, see {@link #supplyAsync(Supplier)}
 	 * <p>
-	 * Make sure you called connect() first otherwise an error will be thrown
-	 *
-	 * @param sql
-	 * @param type
-	 * @param concurrency
+	 * Default: 1000
 	 *
 	 * @return
-	 * @throws SQLException
 	 */
-	protected final java.sql.PreparedStatement prepareStatement(String sql, final int type, final int concurrency) throws SQLException {
-		synchronized (this.connection) {
-			this.checkEstablished();
-
-			if (!this.isConnected())
-				this.connectUsingLastCredentials();
-
-			sql = this.replaceVariables(sql);
-
-			Debugger.debug("mysql", "Preparing statement: " + sql);
-			return this.connection.prepareStatement(sql, type, concurrency);
-		}
+	protected int getAsyncQueueSize() {
+		return 1000;
 	}
 
-	/**
-	 * Is the connection established, open and valid?
-	 * Performs a blocking ping request to the database
-	 *
-	 * @return whether the connection driver was set
+	/*
+	 * Return the executor for asynchronous database tasks, creating it if needed
 	 */
-	protected final boolean isConnected() {
-		if (!this.isLoaded())
-			return false;
+	private ExecutorService getAsyncExecutor() {
+		ThreadPoolExecutor executor = this.asyncExecutor;
 
-		try {
-			if (!this.connection.isValid(0))
-				return false;
-		} catch (SQLException | AbstractMethodError err) {
-			// Pass through silently
-		}
+		if (executor != null && !executor.isShutdown())
+			return executor;
 
-		try {
-			return !this.connection.isClosed();
+		synchronized (this.asyncExecutorLock) {
+			executor = this.asyncExecutor;
 
-		} catch (final SQLException ex) {
-			return false;
-		}
-	}
+			if (executor == null || executor.isShutdown()) {
+				final int threads = this.hikariDataSource != null ? Math.max(1, this.getMaximumPoolSize()) : 1;
 
-	/*
-	 * Checks if there's a collation-related error and prints warning message for the user to
-	 * update his database.
-	 */
-	private void handleError(final Throwable t, final String fallbackMessage) {
-		if (t.toString().contains("Unknown collation")) {
-			Common.log("You need to update your database provider driver. We switched to support unicode using 4 bits length because the previous system only supported 3 bits.");
-			Common.log("Some characters such as smiley or Chinese are stored in 4 bits so they would crash the 3-bit database leading to more problems. Most hosting providers have now widely adopted the utf8mb4_unicode_520_ci encoding you seem lacking. Disable database connection or update your driver to fix this.");
-		}
+				executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+						new ArrayBlockingQueue<>(Math.max(1, this.getAsyncQueueSize())),
+						new NamedThreadFactory(this.getClass().getSimpleName() + "-Database-%d"),
+						new ThreadPoolExecutor.AbortPolicy());
 
-		else if (t.toString().contains("Incorrect string value")) {
-			Common.log("Attempted to save unicode letters (e.g. coors) to your database with invalid encoding, see https://stackoverflow.com/a/10959780 and adjust it. MariaDB may cause issues, use MySQL 8.0 for best results.");
+				executor.allowCoreThreadTimeOut(true);
 
-			t.printStackTrace();
+				this.asyncExecutor = executor;
+			}
 
-		} else
-			Common.throwError(t, fallbackMessage);
+			return executor;
+		}
 	}
 
 	// --------------------------------------------------------------------
@@ -915,7 +2394,7 @@ public class SimpleDatabase {
 	 * @return
 	 */
 	public final boolean isLoaded() {
-		return this.connection != null;
+		return this.connection != null || this.hikariDataSource != null;
 	}
 
 	/**
@@ -962,7 +2441,16 @@ public class SimpleDatabase {
 	 * @return
 	 */
 	protected final boolean isSQLite() {
-		return this.isSQLite;
+		return this.dialect == SqlDialect.SQLITE;
+	}
+
+	/**
+	 * Return the SQL dialect of the database we are connected to
+	 *
+	 * @return
+	 */
+	protected final SqlDialect getDialect() {
+		return this.dialect;
 	}
 
 	// --------------------------------------------------------------------
@@ -1067,6 +2555,121 @@ public class SimpleDatabase {
 		}
 	}
 
+	/**
+	 * Describes versioned changes to an existing table, see {@link SimpleDatabase#migrate(TableMigrator)}
+	 * <p>
+	 * Never change or reuse a version once released, add a new one instead.
+	 */
+	@Getter
+	@RequiredArgsConstructor(access = AccessLevel.PRIVATE)
+	public final static class TableMigrator {
+
+		/**
+		 * The table name, can contain variables such as {table}
+		 */
+		private final String table;
+
+		/**
+		 * Migrations by their version
+		 */
+		private final SortedMap<Integer, Migration> migrations = new TreeMap<>();
+
+		/**
+		 * Add a column unless it exists, the MySQL data type is translated for SQLite
+		 *
+		 * @param version
+		 * @param column
+		 * @param dataType
+		 * @return
+		 */
+		public TableMigrator addColumn(final int version, final String column, final String dataType) {
+			return this.add(version, "add column " + column + " " + dataType, (database, table) -> {
+				if (!database.hasColumn(table, column))
+					database.update("ALTER TABLE " + table + " ADD COLUMN " + column + " " + database.dialect.translateType(dataType, false));
+			});
+		}
+
+		/**
+		 * Add an index on the given columns unless an index of the same name exists.
+		 * On SQLite index names must be unique in the whole database, use {table} in the name.
+		 *
+		 * @param version
+		 * @param index
+		 * @param columns
+		 * @return
+		 */
+		public TableMigrator addIndex(final int version, final String index, final String... columns) {
+			return this.add(version, "add index " + index + " on " + Common.join(columns, ", "), (database, table) -> {
+				final String indexName = database.replaceVariables(index);
+
+				if (!database.hasIndex(table, indexName))
+					database.update("CREATE INDEX " + indexName + " ON " + table + " (" + Common.join(columns, ", ") + ")");
+			});
+		}
+
+		/**
+		 * Run the given SQL
+		 *
+		 * @param version
+		 * @param sql
+		 * @return
+		 */
+		public TableMigrator run(final int version, final String sql) {
+			return this.add(version, sql, (database, table) -> database.update(sql));
+		}
+
+		/*
+		 * Register the migration, failing if the version is taken
+		 */
+		private TableMigrator add(final int version, final String description, final MigrationAction action) {
+			Valid.checkBoolean(!this.migrations.containsKey(version), "Migration version " + version + " for " + this.table + " is already used by: " + this.migrations.get(version));
+
+			this.migrations.put(version, new Migration(description, action));
+
+			return this;
+		}
+
+		/**
+		 * Create a new migrator for the table
+		 *
+		 * @param table
+		 * @return
+		 */
+		public static TableMigrator of(final String table) {
+			return new TableMigrator(table);
+		}
+	}
+
+	/*
+	 * A single change to a table
+	 */
+	@Getter
+	@RequiredArgsConstructor
+	private final static class Migration {
+
+		/**
+		 * What the migration does, for logging
+		 */
+		private final String description;
+
+		/**
+		 * The change
+		 */
+		private final MigrationAction action;
+
+		@Override
+		public String toString() {
+			return this.description;
+		}
+	}
+
+	/*
+	 * Applies a migration to the table
+	 */
+	private interface MigrationAction {
+		void apply(SimpleDatabase database, String table) throws SQLException;
+	}
+
 	/*
 	 * Internal helper to create table rows
 	 */
@@ -1100,6 +2703,37 @@ public class SimpleDatabase {
 		private final Boolean autoIncrement;
 	}
 
+	/**
+	 * How we pick the read replica for each read, see {@link SimpleDatabase#getReplicaSelection()}
+	 */
+	public enum ReplicaSelection {
+
+		/**
+		 * Use available replicas in turns
+		 */
+		ROUND_ROBIN,
+
+		/**
+		 * Use the available replica with the lowest average execution time,
+		 * using them in turns until each has been measured
+		 */
+		LEAST_LATENCY
+	}
+
+	/**
+	 * Receives progress of {@link SimpleDatabase#batchUpdate(List, int, BatchProgress)}
+	 */
+	protected interface BatchProgress {
+
+		/**
+		 * Called after a chunk has been committed
+		 *
+		 * @param committed how many SQLs have been committed so far
+		 * @param total the total amount of SQLs
+		 */
+		void onProgress(int committed, int total);
+	}
+
 	/**
 	 * A helper class to read results set. (We cannot use a simple Consumer since it does not
 	 * catch exceptions automatically.)
@@ -1115,6 +2749,132 @@ public class SimpleDatabase {
 		void accept(SimpleResultSet set) throws SQLException;
 	}
 
+	/*
+	 * A function receiving a connection that may throw SQL errors
+	 */
+	private interface ConnectionFunction<T> {
+		T apply(Connection connection) throws SQLException;
+	}
+
+	/*
+	 * A function receiving a prepared statement that may throw SQL errors
+	 */
+	private interface StatementFunction<T> {
+		T apply(PreparedStatement statement) throws SQLException;
+	}
+
+	/*
+	 * A call to the database that may throw SQL errors
+	 */
+	private interface SqlCall<T> {
+		T call() throws SQLException;
+	}
+
+	/*
+	 * Least recently used prepared statements on a single connection,
+	 * only accessed while holding the connection lock
+	 */
+	private static final class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+
+		private static final long serialVersionUID = 1L;
+
+		/*
+		 * The connection the statements belong to
+		 */
+		private transient Connection connection;
+
+		/*
+		 * Statements checked out and not checked in yet, executing one of them again
+		 * would close its open result set
+		 */
+		private final transient Set<PreparedStatement> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		/*
+		 * The maximum amount of cached statements
+		 */
+		private int capacity;
+
+		private StatementCache() {
+			super(16, 0.75F, true);
+		}
+
+		/*
+		 * Return a cached statement for the query or prepare a new one, clearing
+		 * the cache if the connection has changed since. If the cached statement is
+		 * in use, such as by a select run from the reader of the same select, we return
+		 * a new statement that is closed on check in. Always call {@link #checkIn(String, PreparedStatement)}
+		 */
+		private PreparedStatement checkOut(final Connection connection, final String sql, final int capacity) throws SQLException {
+			if (this.connection != connection) {
+				this.clear();
+
+				this.connection = connection;
+			}
+
+			this.capacity = capacity;
+
+			PreparedStatement statement = this.get(sql);
+
+			if (statement != null && this.inUse.contains(statement))
+				return connection.prepareStatement(sql);
+
+			if (statement == null || statement.isClosed()) {
+				statement = connection.prepareStatement(sql);
+
+				this.put(sql, statement);
+			}
+
+			this.inUse.add(statement);
+
+			return statement;
+		}
+
+		/*
+		 * Return the statement from {@link #checkOut(Connection, String, int)} to the cache,
+		 * or close it if it is not cached
+		 */
+		private void checkIn(final String sql, final PreparedStatement statement) throws SQLException {
+			this.inUse.remove(statement);
+
+			if (this.get(sql) == statement)
+				statement.clearParameters();
+			else
+				closeQuietly(statement);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+			if (this.size() > this.capacity) {
+
+				// Statements in use are closed on check in
+				if (!this.inUse.contains(eldest.getValue()))
+					closeQuietly(eldest.getValue());
+
+				return true;
+			}
+
+			return false;
+		}
+
+		@Override
+		public void clear() {
+			for (final PreparedStatement statement : this.values())
+				closeQuietly(statement);
+
+			this.inUse.clear();
+			super.clear();
+		}
+
+		private static void closeQuietly(final PreparedStatement statement) {
+			try {
+				statement.close();
+
+			} catch (final SQLException ex) {
+				// Connection is likely gone already
+			}
+		}
+	}
+
 	private static class InvalidRowException extends RuntimeException {
 		private static final long serialVersionUID = 1L;
 	}
@@ -1126,6 +2886,12 @@ public class SimpleDatabase {
 		private final String tableName;
 		private final ResultSet delegate;
 
+		/*
+		 * Column indexes by label, resolved once per result set instead of each time a column is read by label
+		 */
+		@Getter(AccessLevel.NONE)
+		private final Map<String, Integer> columnIndexes = new HashMap<>();
+
 		public boolean next() throws SQLException {
 			return delegate.next();
 		}
@@ -1187,7 +2953,7 @@ public class SimpleDatabase {
 		}
 
 		public String getString(String columnLabel) throws SQLException {
-			return Common.getOrEmpty(delegate.getString(columnLabel));
+			return Common.getOrEmpty(delegate.getString(this.findColumn(columnLabel)));
 		}
 
 		public String getStringStrict(String columnLabel) throws SQLException {
@@ -1258,7 +3024,7 @@ public class SimpleDatabase {
 		}
 
 		public boolean getBoolean(String columnLabel) throws SQLException {
-			return delegate.getBoolean(columnLabel);
+			return delegate.getBoolean(this.findColumn(columnLabel));
 		}
 
 		public boolean getBooleanStrict(String columnLabel) throws SQLException {
@@ -1275,7 +3041,7 @@ public class SimpleDatabase {
 		}
 
 		public int getInt(String columnLabel) throws SQLException {
-			return delegate.getInt(columnLabel);
+			return delegate.getInt(this.findColumn(columnLabel));
 		}
 
 		public int getIntStrict(String columnLabel) throws SQLException {
@@ -1292,7 +3058,7 @@ public class SimpleDatabase {
 		}
 
 		public long getLong(String columnLabel) throws SQLException {
-			return delegate.getLong(columnLabel);
+			return delegate.getLong(this.findColumn(columnLabel));
 		}
 
 		public long getLongStrict(String columnLabel) throws SQLException {
@@ -1309,7 +3075,7 @@ public class SimpleDatabase {
 		}
 
 		public double getDouble(String columnLabel) throws SQLException {
-			return delegate.getDouble(columnLabel);
+			return delegate.getDouble(this.findColumn(columnLabel));
 		}
 
 		public double getDoubleStrict(String columnLabel) throws SQLException {
@@ -1355,15 +3121,15 @@ public class SimpleDatabase {
 		}
 
 		public Date getDate(String columnLabel) throws SQLException {
-			return delegate.getDate(columnLabel);
+			return delegate.getDate(this.findColumn(columnLabel));
 		}
 
 		public Time getTime(String columnLabel) throws SQLException {
-			return delegate.getTime(columnLabel);
+			return delegate.getTime(this.findColumn(columnLabel));
 		}
 
 		public long getTimestamp(String columnLabel) throws SQLException {
-			final String rawTimestamp = delegate.getString(columnLabel);
+			final String rawTimestamp = delegate.getString(this.findColumn(columnLabel));
 
 			if (rawTimestamp == null)
 				return 0;
@@ -1379,7 +3145,7 @@ public class SimpleDatabase {
 		}
 
 		public long getTimestampStrict(String columnLabel) throws SQLException {
-			final String rawTimestamp = delegate.getString(columnLabel);
+			final String rawTimestamp = delegate.getString(this.findColumn(columnLabel));
 
 			if (rawTimestamp == null) {
 				Common.warning(SimplePlugin.getNamed() + " found invalid row with null/empty column '" + columnLabel + "' in table " + this.tableName + ", ignoring.");
@@ -1398,15 +3164,23 @@ public class SimpleDatabase {
 		}
 
 		public Object getObject(String columnLabel) throws SQLException {
-			return delegate.getObject(columnLabel);
+			return delegate.getObject(this.findColumn(columnLabel));
 		}
 
 		public <T> T getObject(String columnLabel, Class<T> type) throws SQLException {
-			return delegate.getObject(columnLabel, type);
+			return delegate.getObject(this.findColumn(columnLabel), type);
 		}
 
 		public int findColumn(String columnLabel) throws SQLException {
-			return delegate.findColumn(columnLabel);
+			Integer index = this.columnIndexes.get(columnLabel);
+
+			if (index == null) {
+				index = delegate.findColumn(columnLabel);
+
+				this.columnIndexes.put(columnLabel, index);
+			}
+
+			return index;
 		}
 
 		public boolean isFirst() throws SQLException {
@@ -1454,15 +3228,15 @@ public class SimpleDatabase {
 		}
 
 		public Object getObject(String columnLabel, Map<String, Class<?>> map) throws SQLException {
-			return delegate.getObject(columnLabel, map);
+			return delegate.getObject(this.findColumn(columnLabel), map);
 		}
 
 		public Ref getRef(String columnLabel) throws SQLException {
-			return delegate.getRef(columnLabel);
+			return delegate.getRef(this.findColumn(columnLabel));
 		}
 
 		public Array getArray(String columnLabel) throws SQLException {
-			return delegate.getArray(columnLabel);
+			return delegate.getArray(this.findColumn(columnLabel));
 		}
 
 		public RowId getRowId(int columnIndex) throws SQLException {
@@ -1470,7 +3244,7 @@ public class SimpleDatabase {
 		}
 
 		public RowId getRowId(String columnLabel) throws SQLException {
-			return delegate.getRowId(columnLabel);
+			return delegate.getRowId(this.findColumn(columnLabel));
 		}
 
 		public boolean isClosed() throws SQLException {
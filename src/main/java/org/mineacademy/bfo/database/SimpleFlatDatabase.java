@@ -1,9 +1,22 @@
 package org.mineacademy.bfo.database;
 
-import java.sql.ResultSet;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -12,12 +25,17 @@ import org.mineacademy.bfo.Common;
 import org.mineacademy.bfo.MathUtil;
 import org.mineacademy.bfo.Valid;
 import org.mineacademy.bfo.collection.SerializedMap;
+import org.mineacademy.bfo.collection.expiringmap.ExpirationPolicy;
+import org.mineacademy.bfo.collection.expiringmap.ExpiringMap;
 import org.mineacademy.bfo.debug.Debugger;
 import org.mineacademy.bfo.debug.LagCatcher;
+import org.mineacademy.bfo.remain.Remain;
 import org.mineacademy.bfo.settings.SimpleSettings;
 
-import lombok.NonNull;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
 
 /**
  * Represents a simple database where values are flattened and stored
@@ -44,10 +62,78 @@ import net.md_5.bungee.api.connection.ProxiedPlayer;
 public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 
 	/**
-	 * An internal flag to prevent dead lock so that we do not call any
-	 * more queries within the {@link #load(UUID, Object)} or {@link #save(UUID, Object)} methods
+	 * How long we wait for pending load and save operations to finish when closing
 	 */
-	private boolean isQuerying = false;
+	private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+
+	/**
+	 * Pending load and save operations per player. Operations for the same player
+	 * run one after another in the order they were made, while different players
+	 * are processed in parallel.
+	 */
+	private final Map<UUID, Queue<Runnable>> pendingOperations = new ConcurrentHashMap<>();
+
+	/**
+	 * Players whose {@link #pendingOperations} are being run by a thread right now
+	 */
+	private final Set<UUID> processingOperations = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * How many operations are waiting in {@link #pendingOperations}
+	 */
+	private final AtomicInteger queuedOperations = new AtomicInteger();
+
+	/**
+	 * How many operations are being executed right now
+	 */
+	private final AtomicInteger runningOperations = new AtomicInteger();
+
+	/**
+	 * How many operations have finished since the plugin started
+	 */
+	private final AtomicLong completedOperations = new AtomicLong();
+
+	/**
+	 * Holds saves that were not written yet when using write-behind, only the latest
+	 * save per player is kept, see {@link #getWriteBehindDelayTicks()}
+	 */
+	private final Map<UUID, PendingSave> pendingSaves = new ConcurrentHashMap<>();
+
+	/**
+	 * Prevents writing pending saves from two threads at once
+	 */
+	private final Object flushLock = new Object();
+
+	/**
+	 * Indicates that writing pending saves has been scheduled because there were too many of them
+	 */
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+	/**
+	 * The repeating task writing pending saves, or null if write-behind is disabled
+	 */
+	private ScheduledTask flushTask;
+
+	/**
+	 * All connected databases, so that we can finish their pending operations and saves on shutdown
+	 */
+	private static final Set<SimpleFlatDatabase<?>> connectedDatabases = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Recently loaded data per player so that loading him again does not query the database,
+	 * or null if disabled, see {@link #getLoadCacheSize()}
+	 */
+	private ExpiringMap<UUID, SerializedMap> loadCache;
+
+	/**
+	 * The repeating task removing expired entries, see {@link #getExpirationDays()}
+	 */
+	private ScheduledTask expiryTask;
+
+	/**
+	 * Does the table have the DataBlob column for compact data, see {@link #isCompactDataEnabled()}
+	 */
+	private boolean hasDataBlob = false;
 
 	/**
 	 * Creates the table if it does not exist
@@ -62,28 +148,116 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 		// First, see if the database exists, create it if not
 		this.update("CREATE TABLE IF NOT EXISTS {table}(UUID varchar(64), Name text, Data text, Updated bigint, PRIMARY KEY (`UUID`))");
 
+		// Bring tables created by older versions up to date
+		this.migrateTable();
+
 		// Remove entries that have not been updated in the last X days
-		this.removeOldEntries();
+		this.startRemovingOldEntries();
+
+		// Start writing pending saves periodically
+		this.startWriteBehind();
+
+		// Remember loaded data if enabled
+		this.loadCache = this.getLoadCacheSize() > 0 ? ExpiringMap.builder()
+				.maxSize(this.getLoadCacheSize())
+				.expirationPolicy(ExpirationPolicy.ACCESSED)
+				.expiration(this.getLoadCacheIdleSeconds(), TimeUnit.SECONDS)
+				.build() : null;
+
+		connectedDatabases.add(this);
 
 		// Call any hooks
 		this.onConnectFinish();
 	}
 
+	/**
+	 * Restarts removing old entries and writing pending saves periodically after reloading
+	 */
+	@Override
+	protected void restartTasks() {
+		super.restartTasks();
+
+		this.startRemovingOldEntries();
+		this.startWriteBehind();
+	}
+
 	/**
 	 * You can override this to run code after the connection was made and
-	 * the table created as well as purged ({@link #removeOldEntries()})
+	 * the table created. Old entries are removed in the background shortly after,
+	 * see {@link #getExpirationDays()}
 	 */
 	protected void onConnectFinish() {
 	}
 
 	/*
-	 * Remove entries that have not been updated (called {@link #save(Identifiable)} method) for the
-	 * last given X amount of days
+	 * Adds the index on the Updated column so we can find old entries without reading the whole table,
+	 * and the DataBlob column if compact data are enabled, then remember if we have it
+	 */
+	private void migrateTable() {
+		final TableMigrator migrator = TableMigrator.of("{table}")
+				.addIndex(1, "{table}_Updated", "Updated");
+
+		if (this.isCompactDataEnabled())
+			migrator.addColumn(2, "DataBlob", "mediumblob");
+
+		this.migrate(migrator);
+		this.hasDataBlob = this.hasColumn("{table}", "DataBlob");
+	}
+
+	/*
+	 * Starts the repeating task removing entries that have not been updated
+	 * (called {@link #save(Identifiable)} method) for the last given X amount of days
+	 */
+	private void startRemovingOldEntries() {
+		if (this.expiryTask != null) {
+			this.expiryTask.cancel();
+
+			this.expiryTask = null;
+		}
+
+		final int intervalTicks = this.getExpirySweepIntervalTicks();
+
+		if (intervalTicks <= 0)
+			return;
+
+		this.expiryTask = Common.runTimerAsync(20, intervalTicks, () -> {
+			if (this.isLoaded())
+				this.removeOldEntries();
+		});
+	}
+
+	/*
+	 * Removes entries that have not been updated for the last given X amount of days
+	 * in chunks, so that other queries can run in between
 	 */
 	private void removeOldEntries() {
 		final long threshold = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(this.getExpirationDays());
+		final int chunkSize = Math.max(1, this.getExpirySweepChunkSize());
+
+		// SQLite is usually not compiled with DELETE ... LIMIT support
+		final String sql = this.isSQLite()
+				? "DELETE FROM {table} WHERE UUID IN (SELECT UUID FROM {table} WHERE Updated < ? LIMIT " + chunkSize + ")"
+				: "DELETE FROM {table} WHERE Updated < ? LIMIT " + chunkSize;
+
+		int removed = 0;
+		int removedChunk;
+
+		try {
+			do {
+				try (PreparedStatement statement = this.prepareStatement(sql)) {
+					statement.setLong(1, threshold);
 
-		this.update("DELETE FROM {table} WHERE Updated < " + threshold + "");
+					removedChunk = statement.executeUpdate();
+					removed += removedChunk;
+				}
+			} while (removedChunk >= chunkSize && this.isLoaded());
+
+		} catch (final Throwable t) {
+			Common.error(t, "Failed to remove old entries from " + this.replaceVariables("{table}"));
+		}
+
+		if (removed > 0)
+			Debugger.debug("mysql", "Removed " + removed + " entries not updated in the last " + this.getExpirationDays() + " days");
 	}
 
 	/**
@@ -99,6 +273,142 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 		return 90;
 	}
 
+	/**
+	 * How often we look for and remove entries older than {@link #getExpirationDays()}
+	 * in the background. The first check runs a second after connecting.
+	 * Set to 0 to never remove old entries.
+	 * <p>
+	 * Default: 72 000 ticks (1 hour)
+	 *
+	 * @return
+	 */
+	protected int getExpirySweepIntervalTicks() {
+		return 20 * 60 * 60;
+	}
+
+	/**
+	 * How many old entries we remove in one query, we keep removing
+	 * them in chunks until none are left
+	 * <p>
+	 * Default: 1000
+	 *
+	 * @return
+	 */
+	protected int getExpirySweepChunkSize() {
+		return 1000;
+	}
+
+	/**
+	 * When above zero, {@link #save(String, UUID, Object, Runnable)} does not write to
+	 * the database right away. Instead we keep the latest data for each player and write
+	 * all changed players at once every X ticks or when there are
+	 * {@link #getWriteBehindBatchSize()} of them, in a single query.
+	 * <p>
+	 * Pending saves are written when you call {@link #close()} and when the plugin stops.
+	 * <p>
+	 * Default: 0 (disabled)
+	 *
+	 * @return
+	 */
+	protected int getWriteBehindDelayTicks() {
+		return 0;
+	}
+
+	/**
+	 * How many players can wait to be saved before we write them without waiting
+	 * for {@link #getWriteBehindDelayTicks()}, also the maximum amount of rows per query.
+	 * <p>
+	 * Default: 100
+	 *
+	 * @return
+	 */
+	protected int getWriteBehindBatchSize() {
+		return 100;
+	}
+
+	/**
+	 * When true, we save data in a compact binary form into the DataBlob column instead of
+	 * JSON text into the Data column. It is smaller and faster to load for large data.
+	 * <p>
+	 * Existing rows are still loaded from JSON and converted next time they are saved.
+	 * Rows saved in compact form are loaded even after you disable this again.
+	 * <p>
+	 * Default: false
+	 *
+	 * @return
+	 */
+	protected boolean isCompactDataEnabled() {
+		return false;
+	}
+
+	/*
+	 * Return columns of a row in the order we bind them, data columns are
+	 * the ones {@link #bindData(PreparedStatement, int, SerializedMap)} writes to
+	 */
+	private List<String> getRowColumns() {
+		return this.hasDataBlob ? Arrays.asList("UUID", "Name", "Data", "DataBlob", "Updated") : Arrays.asList("UUID", "Name", "Data", "Updated");
+	}
+
+	/*
+	 * Binds the data as JSON or compact bytes depending on {@link #isCompactDataEnabled()},
+	 * clearing the other column, and return the next parameter index
+	 */
+	private int bindData(final PreparedStatement statement, int index, final SerializedMap data) throws SQLException {
+		if (this.hasDataBlob && this.isCompactDataEnabled()) {
+			statement.setNull(index++, Types.VARCHAR);
+			statement.setBytes(index++, data.toBytes());
+
+		} else {
+			statement.setString(index++, data.toJson());
+
+			if (this.hasDataBlob)
+				statement.setNull(index++, Types.BLOB);
+		}
+
+		return index;
+	}
+
+	/**
+	 * When above zero, we remember the data of up to this many recently loaded players
+	 * so that loading them again, such as when they reconnect or switch servers, does not
+	 * query the database. The data is forgotten when the player is saved.
+	 * <p>
+	 * Only enable if no other plugin or server writes to this table, otherwise
+	 * we would load outdated data until it expires, see {@link #getLoadCacheIdleSeconds()}
+	 * <p>
+	 * Default: 0 (disabled)
+	 *
+	 * @return
+	 */
+	protected int getLoadCacheSize() {
+		return 0;
+	}
+
+	/**
+	 * How long we remember loaded data of a player since it was last loaded
+	 * when {@link #getLoadCacheSize()} is enabled
+	 * <p>
+	 * Default: 300 seconds
+	 *
+	 * @return
+	 */
+	protected int getLoadCacheIdleSeconds() {
+		return 300;
+	}
+
+	/**
+	 * Forget the remembered loaded data for the given player so that the next load
+	 * reads it from the database, see {@link #getLoadCacheSize()}
+	 *
+	 * @param uuid
+	 */
+	public final void invalidateLoadCache(final UUID uuid) {
+		final ExpiringMap<UUID, SerializedMap> loadCache = this.loadCache;
+
+		if (loadCache != null)
+			loadCache.remove(uuid);
+	}
+
 	/**
 	 * Load the data for the given unique ID and his cache
 	 *
@@ -138,54 +448,96 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 	 * @param runAfterLoad callback synced on the main thread
 	 */
 	public final void load(final UUID uuid, final T cache, @Nullable Runnable runAfterLoad) {
-		if (!this.isLoaded() || this.isQuerying)
+		if (!this.isLoaded())
 			return;
 
-		LagCatcher.start("mysql");
-		this.isQuerying = true;
+		this.queueOperation(uuid, () -> {
+			final long startNanos = System.nanoTime();
+
+			Debugger.debug("mysql", "---------------- MySQL - Loading data for " + uuid);
+
+			final ExpiringMap<UUID, SerializedMap> loadCache = this.loadCache;
+			final PendingSave pendingSave = this.pendingSaves.get(uuid);
+			final SerializedMap cachedData = pendingSave == null && loadCache != null ? loadCache.get(uuid) : null;
+			String dataRaw = "{}";
+			byte[] dataBytes = null;
+
+			// Data not yet written by write-behind are newer than the database
+			if (pendingSave != null)
+				dataRaw = pendingSave.getData() == null ? "{}" : pendingSave.getData().toJson();
+
+			else if (cachedData != null)
+				Debugger.debug("mysql", "Using remembered data, skipping query");
 
-		Debugger.debug("mysql", "---------------- MySQL - Loading data for " + uuid);
+			// Players switching servers are loaded right after being saved, replicas may not have the data yet
+			else
+				try {
+					final String[] readRaw = { "{}" };
+					final byte[][] readBytes = { null };
 
-		Common.runAsync(() -> {
+					// Read the row while holding the connection since other players' operations run in parallel
+					this.readFromPrimary(() -> {
+						try {
+							this.selectOrThrow("{table}", "UUID = ?", set -> {
+								readRaw[0] = set.getDelegate().getString("Data");
+
+								if (this.hasDataBlob)
+									readBytes[0] = set.getDelegate().getBytes("DataBlob");
+
+							}, uuid.toString());
+
+						} catch (final SQLException ex) {
+							Remain.sneaky(ex);
+						}
+					});
+
+					dataRaw = readRaw[0];
+					dataBytes = readBytes[0];
+
+					Debugger.debug("mysql", dataBytes != null ? "Compact data: " + dataBytes.length + " bytes" : "JSON: " + dataRaw);
+
+				} catch (final Throwable t) {
+					Common.error(t,
+							"Failed to load data from MySQL!",
+							"UUID: " + uuid,
+							"Error: %error");
+
+					this.logPerformance("loading", startNanos);
+					return;
+				}
 
 			try {
-				final ResultSet resultSet = this.query("SELECT * FROM {table} WHERE UUID='" + uuid + "'");
-				final String dataRaw = resultSet.next() ? resultSet.getString("Data") : "{}";
-				Debugger.debug("mysql", "JSON: " + dataRaw);
+				final SerializedMap data;
 
-				Common.runAsync(() -> {
+				// Copy the remembered data since onLoad may change it
+				if (cachedData != null)
+					data = new SerializedMap().mergeFrom(cachedData);
 
-					try {
-						final SerializedMap data = SerializedMap.fromJson(dataRaw);
-						Debugger.debug("mysql", "Deserialized data: " + data);
+				else {
+					data = dataBytes != null ? SerializedMap.fromBytes(dataBytes) : SerializedMap.fromJson(dataRaw != null ? dataRaw : "{}");
 
-						// Call the user specified load method
-						this.onLoad(data, cache);
+					if (pendingSave == null && loadCache != null)
+						loadCache.put(uuid, new SerializedMap().mergeFrom(data));
+				}
 
-						// Invoke sync callback when load finish
-						if (runAfterLoad != null)
-							runAfterLoad.run();
+				Debugger.debug("mysql", "Deserialized data: " + data);
 
-					} catch (final Throwable t) {
-						Common.error(t,
-								"Failed to parse loaded data from MySQL!",
-								"UUID: " + uuid,
-								"Raw data: " + dataRaw,
-								"Error: %error");
+				// Call the user specified load method
+				this.onLoad(data, cache);
 
-					}
-				});
+				// Invoke sync callback when load finish
+				if (runAfterLoad != null)
+					runAfterLoad.run();
 
 			} catch (final Throwable t) {
 				Common.error(t,
-						"Failed to load data from MySQL!",
+						"Failed to parse loaded data from MySQL!",
 						"UUID: " + uuid,
+						"Raw data: " + dataRaw,
 						"Error: %error");
 
 			} finally {
-				this.isQuerying = false;
-
-				this.logPerformance("loading");
+				this.logPerformance("loading", startNanos);
 			}
 		});
 	}
@@ -248,12 +600,9 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 	 * @param runAfterSave sync callback to be run when save is done
 	 */
 	public final void save(final String name, final UUID uuid, final T cache, @Nullable final Runnable runAfterSave) {
-		if (!this.isLoaded() || this.isQuerying)
+		if (!this.isLoaded())
 			return;
 
-		LagCatcher.start("mysql");
-		this.isQuerying = true;
-
 		// Save using the user configured save method
 		final SerializedMap data = this.onSave(cache);
 
@@ -261,23 +610,41 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 		Debugger.debug("mysql", "Raw data: " + data);
 		Debugger.debug("mysql", "JSON: " + (data == null ? "null" : data.toJson()));
 
-		Common.runAsync(() -> {
+		this.invalidateLoadCache(uuid);
+
+		if (this.getWriteBehindDelayTicks() > 0) {
+			this.queueSave(name, uuid, data, runAfterSave);
+
+			return;
+		}
+
+		this.queueOperation(uuid, () -> {
+			final long startNanos = System.nanoTime();
 
 			try {
 				// Remove data if empty
 				if (data == null || data.isEmpty()) {
-					this.update("DELETE FROM {table} WHERE UUID= '" + uuid + "';");
+					this.update("DELETE FROM {table} WHERE UUID = ?", uuid.toString());
 
 					if (Debugger.isDebugged("mysql"))
 						Debugger.debug("mysql", "Data was empty, row has been removed.");
 
-				} else if (this.isStored(uuid))
-					this.update("UPDATE {table} SET Data='" + data.toJson() + "', Updated='" + System.currentTimeMillis() + "' WHERE UUID='" + uuid + "';");
-				else
-					this.update("INSERT INTO {table}(UUID, Name, Data, Updated) VALUES ('" + uuid + "', '" + name + "', '" + data.toJson() + "', '" + System.currentTimeMillis() + "');");
+				} else
+					try (PreparedStatement statement = this.prepareStatement(this.getDialect().buildUpsert("{table}", this.getRowColumns(), 1))) {
+						statement.setString(1, uuid.toString());
+						statement.setString(2, name);
+
+						final int index = this.bindData(statement, 3, data);
+
+						statement.setLong(index, System.currentTimeMillis());
+						statement.executeUpdate();
+					}
+
+				// A load queued before this save may have remembered the old data
+				this.invalidateLoadCache(uuid);
 
 				if (runAfterSave != null)
-					Common.runAsync(() -> runAfterSave.run());
+					runAfterSave.run();
 
 			} catch (final Throwable ex) {
 				Common.error(ex,
@@ -286,41 +653,331 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 						"Error: %error");
 
 			} finally {
-				this.isQuerying = false;
-
-				this.logPerformance("saving");
+				this.logPerformance("saving", startNanos);
 			}
 		});
 	}
 
 	/*
-	 * Utility method to finish LagCatcher mysql measure and log
-	 * if there was some lag, or if we detected mysql being run
-	 * from the main thread.
+	 * Remembers the latest save for the given player to be written later, replacing
+	 * any previous pending save for him
+	 */
+	private void queueSave(final String name, final UUID uuid, @Nullable final SerializedMap data, @Nullable final Runnable runAfterSave) {
+		final PendingSave save = new PendingSave(name, data, System.currentTimeMillis(), new ArrayList<>());
+
+		if (runAfterSave != null)
+			save.getCallbacks().add(runAfterSave);
+
+		this.pendingSaves.merge(uuid, save, (oldSave, newSave) -> {
+			newSave.inheritCallbacks(oldSave);
+
+			return newSave;
+		});
+
+		if (this.pendingSaves.size() >= this.getWriteBehindBatchSize() && this.flushScheduled.compareAndSet(false, true))
+			this.runAsync(() -> {
+				try {
+					this.flushPendingSaves();
+
+				} finally {
+					this.flushScheduled.set(false);
+				}
+			});
+	}
+
+	/*
+	 * Starts the repeating task writing pending saves if write-behind is enabled
+	 */
+	private void startWriteBehind() {
+		if (this.flushTask != null) {
+			this.flushTask.cancel();
+
+			this.flushTask = null;
+		}
+
+		final int delayTicks = this.getWriteBehindDelayTicks();
+
+		if (delayTicks > 0)
+			this.flushTask = Common.runTimerAsync(delayTicks, delayTicks, this::flushPendingSaves);
+	}
+
+	/**
+	 * Writes all saves waiting because of write-behind to the database now,
+	 * blocking the thread until done. Saves that fail to be written are kept
+	 * and retried next time.
 	 *
-	 * @param operation
+	 * @see #getWriteBehindDelayTicks()
 	 */
-	private void logPerformance(final String operation) {
-		LagCatcher.end("mysql", MathUtil.atLeast(200, SimpleSettings.LAG_THRESHOLD_MILLIS), ChatUtil.capitalize(operation) + " data to MySQL took {time} ms");
+	public final void flushPendingSaves() {
+		if (this.pendingSaves.isEmpty() || !this.isLoaded())
+			return;
+
+		synchronized (this.flushLock) {
+			final List<UUID> upserts = new ArrayList<>();
+			final List<UUID> deletes = new ArrayList<>();
+			final Map<UUID, PendingSave> snapshot = new HashMap<>(this.pendingSaves);
+
+			for (final Map.Entry<UUID, PendingSave> entry : snapshot.entrySet()) {
+				final SerializedMap data = entry.getValue().getData();
+
+				if (data == null || data.isEmpty())
+					deletes.add(entry.getKey());
+				else
+					upserts.add(entry.getKey());
+			}
+
+			final int batchSize = Math.max(1, this.getWriteBehindBatchSize());
+
+			for (int from = 0; from < upserts.size(); from += batchSize)
+				this.writePendingSaves(upserts.subList(from, Math.min(upserts.size(), from + batchSize)), snapshot, false);
+
+			for (int from = 0; from < deletes.size(); from += batchSize)
+				this.writePendingSaves(deletes.subList(from, Math.min(deletes.size(), from + batchSize)), snapshot, true);
+		}
 	}
 
 	/*
-	 * Checks if the given unique id is stored in the database
+	 * Writes the given pending saves in one query and forgets them unless
+	 * they were replaced by a newer save in the meantime
+	 */
+	private void writePendingSaves(final List<UUID> uuids, final Map<UUID, PendingSave> snapshot, final boolean delete) {
+		final long startNanos = System.nanoTime();
+
+		final String sql = delete
+				? "DELETE FROM {table} WHERE UUID IN (" + Common.join(uuids, ", ", uuid -> "?") + ")"
+				: this.getDialect().buildUpsert("{table}", this.getRowColumns(), uuids.size());
+
+		try (PreparedStatement statement = this.prepareStatement(sql)) {
+			int index = 1;
+
+			for (final UUID uuid : uuids) {
+				final PendingSave save = snapshot.get(uuid);
+
+				statement.setString(index++, uuid.toString());
+
+				if (!delete) {
+					statement.setString(index++, save.getName());
+					index = this.bindData(statement, index, save.getData());
+					statement.setLong(index++, save.getUpdated());
+				}
+			}
+
+			statement.executeUpdate();
+
+		} catch (final Throwable t) {
+			Common.error(t,
+					"Failed to write " + uuids.size() + " pending save(s) to MySQL, will retry later!",
+					"Error: %error");
+
+			return;
+
+		} finally {
+			this.logPerformance("saving", startNanos);
+		}
+
+		Debugger.debug("mysql", "Wrote " + uuids.size() + " pending save(s) to the database");
+
+		for (final UUID uuid : uuids) {
+			final PendingSave save = snapshot.get(uuid);
+
+			this.pendingSaves.remove(uuid, save);
+			this.invalidateLoadCache(uuid);
+
+			for (final Runnable callback : save.markWritten())
+				try {
+					callback.run();
+
+				} catch (final Throwable t) {
+					Common.error(t, "Failed to run callback after saving data for " + uuid);
+				}
+		}
+	}
+
+	/**
+	 * Finishes pending load and save operations and writes pending saves
+	 * before the connection is closed
+	 */
+	@Override
+	protected void onClose() {
+		if (this.expiryTask != null) {
+			this.expiryTask.cancel();
+
+			this.expiryTask = null;
+		}
+
+		if (this.flushTask != null) {
+			this.flushTask.cancel();
+
+			this.flushTask = null;
+		}
+
+		this.finishPendingOperations();
+		this.flushPendingSaves();
+
+		if (this.loadCache != null)
+			this.loadCache.clear();
+
+		connectedDatabases.remove(this);
+	}
+
+	/**
+	 * Finishes pending load and save operations and writes pending saves
+	 * of all databases, called automatically when the plugin stops
+	 *
+	 * @deprecated internal use only
+	 */
+	@Deprecated
+	public static void flushAllPendingSaves() {
+		for (final SimpleFlatDatabase<?> database : connectedDatabases)
+			try {
+				database.finishPendingOperations();
+				database.flushPendingSaves();
+
+			} catch (final Throwable t) {
+				Common.error(t, "Failed to write pending saves of " + database);
+			}
+	}
+
+	/*
+	 * Queues the operation for the given player and starts processing the queue
+	 * async if it is not being processed already
+	 */
+	private void queueOperation(final UUID uuid, final Runnable operation) {
+		final boolean[] startProcessing = { false };
+
+		this.queuedOperations.incrementAndGet();
+
+		this.pendingOperations.compute(uuid, (key, queue) -> {
+			if (queue == null) {
+				queue = new ArrayDeque<>();
+
+				startProcessing[0] = true;
+			}
+
+			queue.add(operation);
+			return queue;
+		});
+
+		if (startProcessing[0])
+			this.runAsync(() -> this.processOperations(uuid));
+	}
+
+	/*
+	 * Runs pending operations of all players on this thread, waiting for operations
+	 * other threads are running, for at most {@link #CLOSE_TIMEOUT_MILLIS}
+	 */
+	private void finishPendingOperations() {
+		final long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT_MILLIS;
+
+		while (!this.pendingOperations.isEmpty() && System.currentTimeMillis() < deadline) {
+			for (final UUID uuid : this.pendingOperations.keySet())
+				this.processOperations(uuid);
+
+			// The rest is being run by async threads
+			if (!this.pendingOperations.isEmpty())
+				try {
+					Thread.sleep(10);
+
+				} catch (final InterruptedException ex) {
+					Thread.currentThread().interrupt();
+
+					break;
+				}
+		}
+
+		if (!this.pendingOperations.isEmpty())
+			Common.warning("Gave up waiting for " + this.queuedOperations.get() + " database operation(s) of " + this.pendingOperations.size() + " player(s) after " + CLOSE_TIMEOUT_MILLIS + " ms, they will be lost.");
+	}
+
+	/*
+	 * Runs all pending operations for the given player in order unless another
+	 * thread is running them already, so that they never run in parallel
+	 */
+	private void processOperations(final UUID uuid) {
+		do {
+			if (!this.processingOperations.add(uuid))
+				return;
+
+			try {
+				this.runOperations(uuid);
+
+			} finally {
+				this.processingOperations.remove(uuid);
+			}
+
+			// An operation may have been queued after our last one while we still held the player
+		} while (this.pendingOperations.containsKey(uuid));
+	}
+
+	/*
+	 * Runs all pending operations for the given player in order, removing
+	 * the queue atomically once it is empty
+	 */
+	private void runOperations(final UUID uuid) {
+		while (true) {
+			final Runnable[] next = { null };
+
+			this.pendingOperations.computeIfPresent(uuid, (key, queue) -> {
+				next[0] = queue.poll();
+
+				return next[0] == null ? null : queue;
+			});
+
+			if (next[0] == null)
+				return;
+
+			this.queuedOperations.decrementAndGet();
+			this.runningOperations.incrementAndGet();
+
+			try {
+				next[0].run();
+
+			} catch (final Throwable t) {
+				Common.error(t, "Failed to process database operation for " + uuid);
+
+			} finally {
+				this.runningOperations.decrementAndGet();
+				this.completedOperations.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Return how many load and save operations are waiting to be executed
 	 *
-	 * @param uuid
 	 * @return
-	 * @throws SQLException
 	 */
-	private boolean isStored(@NonNull final UUID uuid) throws SQLException {
-		final ResultSet resultSet = this.query("SELECT * FROM {table} WHERE UUID= '" + uuid.toString() + "'");
+	public final int getQueuedOperations() {
+		return this.queuedOperations.get();
+	}
 
-		if (resultSet == null)
-			return false;
+	/**
+	 * Return how many load and save operations are being executed right now
+	 *
+	 * @return
+	 */
+	public final int getRunningOperations() {
+		return this.runningOperations.get();
+	}
+
+	/**
+	 * Return how many load and save operations have finished
+	 *
+	 * @return
+	 */
+	public final long getCompletedOperations() {
+		return this.completedOperations.get();
+	}
 
-		if (resultSet.next())
-			return resultSet.getString("UUID") != null;
+	/*
+	 * Utility method to log how long the operation started at the given time took
+	 * if it was over the limit, each operation measures its own time since they run in parallel
+	 */
+	private void logPerformance(final String operation, final long startNanos) {
+		final double tookMillis = (System.nanoTime() - startNanos) / 1_000_000D;
 
-		return false;
+		if (SimpleSettings.LAG_THRESHOLD_MILLIS != -1 && tookMillis > MathUtil.atLeast(200, SimpleSettings.LAG_THRESHOLD_MILLIS) && LagCatcher.isPrintingMessages())
+			Common.log(ChatUtil.capitalize(operation) + " data to MySQL took " + MathUtil.formatTwoDigits(tookMillis) + " ms");
 	}
 
 	/**
@@ -332,4 +989,65 @@ public abstract class SimpleFlatDatabase<T> extends SimpleDatabase {
 	 * @return
 	 */
 	protected abstract SerializedMap onSave(T data);
+
+	/*
+	 * Data waiting to be written to the database by write-behind
+	 */
+	@Getter
+	@RequiredArgsConstructor
+	private static final class PendingSave {
+
+		/**
+		 * The last known player name
+		 */
+		private final String name;
+
+		/**
+		 * The data to save, null or empty to delete the row
+		 */
+		@Nullable
+		private final SerializedMap data;
+
+		/**
+		 * The time of the save call
+		 */
+		private final long updated;
+
+		/**
+		 * Callbacks to run once the data has been written
+		 */
+		private final List<Runnable> callbacks;
+
+		/**
+		 * Has the data been written and the callbacks taken to be run?
+		 */
+		private boolean written = false;
+
+		/*
+		 * Take over callbacks of the save this one replaces unless it was written already,
+		 * in which case they have been run
+		 */
+		private void inheritCallbacks(final PendingSave replaced) {
+			synchronized (replaced) {
+				if (!replaced.written) {
+					this.callbacks.addAll(0, replaced.callbacks);
+
+					replaced.callbacks.clear();
+				}
+			}
+		}
+
+		/*
+		 * Mark the save as written and return its callbacks to run, so that
+		 * a save replacing it does not take them over and run them again
+		 */
+		private synchronized List<Runnable> markWritten() {
+			final List<Runnable> callbacksToRun = new ArrayList<>(this.callbacks);
+
+			this.written = true;
+			this.callbacks.clear();
+
+			return callbacksToRun;
+		}
+	}
 }
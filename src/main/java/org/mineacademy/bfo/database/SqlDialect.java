@@ -0,0 +1,133 @@
+package org.mineacademy.bfo.database;
+
+import java.util.List;
+
+import org.mineacademy.bfo.Common;
+
+/**
+ * The SQL differences between databases supported by {@link SimpleDatabase}
+ */
+public enum SqlDialect {
+
+	/**
+	 * MySQL or any other server we connect to using the MySQL driver
+	 */
+	MYSQL,
+
+	/**
+	 * MariaDB connected using the MariaDB driver
+	 */
+	MARIADB,
+
+	/**
+	 * A local SQLite file
+	 */
+	SQLITE;
+
+	/**
+	 * Return the dialect for the given JDBC url, defaulting to MySQL
+	 *
+	 * @param url
+	 * @return
+	 */
+	public static SqlDialect fromUrl(final String url) {
+		if (url.startsWith("jdbc:sqlite"))
+			return SQLITE;
+
+		if (url.startsWith("jdbc:mariadb"))
+			return MARIADB;
+
+		return MYSQL;
+	}
+
+	/**
+	 * Translate the MySQL data type into one supported by this dialect
+	 *
+	 * @param dataType
+	 * @param primary is this the primary key column
+	 * @return
+	 */
+	public String translateType(final String dataType, final boolean primary) {
+		final String type = dataType.toLowerCase();
+
+		if (this != SQLITE)
+			return type;
+
+		if (type.equals("datetime") || type.equals("longtext") || type.startsWith("varchar"))
+			return "text";
+
+		if (type.startsWith("bigint"))
+			return "integer";
+
+		if (type.endsWith("blob"))
+			return "blob";
+
+		if (primary)
+			return "INTEGER PRIMARY KEY";
+
+		return type;
+	}
+
+	/**
+	 * Return the keyword making the column auto increment
+	 *
+	 * @return
+	 */
+	public String getAutoIncrement() {
+		return this == SQLITE ? "AUTOINCREMENT" : "NOT NULL AUTO_INCREMENT";
+	}
+
+	/**
+	 * Return options appended to CREATE TABLE
+	 *
+	 * @return
+	 */
+	public String getTableOptions() {
+		return this == SQLITE ? "" : "DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_520_ci";
+	}
+
+	/**
+	 * Can we stream rows one by one using {@link Integer#MIN_VALUE} fetch size?
+	 *
+	 * @return
+	 */
+	public boolean supportsStreaming() {
+		return this != SQLITE;
+	}
+
+	/**
+	 * Build an insert of the given amount of rows with ? placeholders that updates
+	 * existing rows with the same primary or unique key instead of failing
+	 *
+	 * @param table
+	 * @param columns
+	 * @param rows
+	 * @return
+	 */
+	public String buildUpsert(final String table, final List<String> columns, final int rows) {
+		final String row = "(" + Common.join(columns, ", ", column -> "?") + ")";
+		final StringBuilder values = new StringBuilder();
+
+		for (int i = 0; i < rows; i++)
+			values.append(i == 0 ? "" : ", ").append(row);
+
+		final String insert = "INSERT INTO " + table + " (" + Common.join(columns, ", ") + ") VALUES " + values;
+
+		if (this == SQLITE)
+			return insert + " ON CONFLICT DO UPDATE SET " + Common.join(columns, ", ", column -> column + "=excluded." + column);
+
+		return insert + " ON DUPLICATE KEY UPDATE " + Common.join(columns, ", ", column -> column + "=VALUES(" + column + ")");
+	}
+
+	/**
+	 * Return a query with ? placeholders for the table and index name that
+	 * returns the count of indexes with that name
+	 *
+	 * @return
+	 */
+	public String getIndexExistsQuery() {
+		return this == SQLITE
+				? "SELECT COUNT(*) FROM sqlite_master WHERE type = 'index' AND tbl_name = ? AND name = ?"
+				: "SELECT COUNT(*) FROM information_schema.statistics WHERE table_schema = DATABASE() AND table_name = ? AND index_name = ?";
+	}
+}
@@ -23,10 +23,14 @@ import org.mineacademy.bfo.ReflectionUtil;
 import org.mineacademy.bfo.Valid;
 import org.mineacademy.bfo.annotation.AutoRegister;
 import org.mineacademy.bfo.bungee.BungeeListener;
+import org.mineacademy.bfo.bungee.message.MessageBatcher;
+import org.mineacademy.bfo.bungee.message.PendingMessages;
 import org.mineacademy.bfo.collection.StrictList;
 import org.mineacademy.bfo.command.SimpleCommand;
 import org.mineacademy.bfo.command.SimpleCommandGroup;
 import org.mineacademy.bfo.command.SimpleSubCommand;
+import org.mineacademy.bfo.database.SimpleDatabase;
+import org.mineacademy.bfo.database.SimpleFlatDatabase;
 import org.mineacademy.bfo.debug.Debugger;
 import org.mineacademy.bfo.exception.FoException;
 import org.mineacademy.bfo.library.BungeeLibraryManager;
@@ -210,6 +214,8 @@ public abstract class SimplePlugin extends Plugin implements Listener {
 			if (!this.getProxy().getChannels().contains("BungeeCord"))
 				this.getProxy().registerChannel("BungeeCord");
 
+			PendingMessages.startExpiring();
+
 			// Hide plugin name before console messages
 			final String oldLogPrefix = Common.getLogPrefix();
 			Common.setLogPrefix("");
@@ -341,6 +347,9 @@ public abstract class SimplePlugin extends Plugin implements Listener {
 			Common.log("&cPlugin might not shut down property. Got " + t.getClass().getSimpleName() + ": " + t.getMessage());
 		}
 
+		// Write data waiting in databases using write-behind
+		SimpleFlatDatabase.flushAllPendingSaves();
+
 		this.unregisterReloadables();
 
 		Objects.requireNonNull(instance, "Instance of " + this.getDataFolder().getName() + " already nulled!");
@@ -432,6 +441,10 @@ public abstract class SimplePlugin extends Plugin implements Listener {
 			if (!this.getProxy().getChannels().contains("BungeeCord"))
 				this.getProxy().registerChannel("BungeeCord");
 
+			// Tasks were cancelled above
+			PendingMessages.startExpiring();
+			SimpleDatabase.restartAllTasks();
+
 			// Register classes
 			AutoRegisterScanner.scanAndRegister();
 
@@ -459,6 +472,9 @@ public abstract class SimplePlugin extends Plugin implements Listener {
 		FolderWatcher.stopThreads();
 
 		this.getProxy().getScheduler().cancel(this);
+
+		// Send batched messages whose task we just cancelled, allowing new batches to schedule it again
+		MessageBatcher.flushAll();
 		this.mainCommand = null;
 	}
 